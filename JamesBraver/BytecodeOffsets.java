@@ -0,0 +1,89 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Original bytecode offsets of the labels of a tree.
+ * <br>
+ * ASM resolves label offsets only while writing, so the {@link LabelNode}s of a {@link ClassNode} filled by a
+ * plain {@link ClassReader} never learn where they were read from. {@link #read(byte[], int)} builds the tree
+ * through a reader whose labels carry their offset, and keeps those labels in the nodes. {@link #offset(LabelNode)}
+ * knows them until the method is written out, which resets every label.
+ *
+ * @author a114mc
+ */
+public final class BytecodeOffsets {
+
+    private BytecodeOffsets() {
+    }
+
+    /**
+     * Same as {@code new ClassReader(classFile).accept(classNode, parsingOptions)}, with offsets kept.
+     */
+    public static ClassNode read(byte[] classFile, int parsingOptions) {
+        ClassNode classNode = new ClassNode(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                MethodNode method = new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                    @Override
+                    protected LabelNode getLabelNode(Label label) {
+                        if (!(label.info instanceof LabelNode)) {
+                            // Wrap the reader's label instead of a fresh one, it is the one knowing its offset
+                            label.info = new LabelNode(label);
+                        }
+                        return (LabelNode) label.info;
+                    }
+                };
+                methods.add(method);
+                return method;
+            }
+        };
+        new ClassReader(classFile) {
+            @Override
+            protected Label readLabel(int bytecodeOffset, Label[] labels) {
+                if (labels[bytecodeOffset] == null) {
+                    labels[bytecodeOffset] = new OffsetLabel(bytecodeOffset);
+                }
+                return labels[bytecodeOffset];
+            }
+        }.accept(classNode, parsingOptions);
+        return classNode;
+    }
+
+    /**
+     * @return offset of {@code label} in the original class file, {@code -1} unless the tree came from
+     * {@link #read(byte[], int)} and the label from the class file
+     */
+    public static int offset(LabelNode label) {
+        Label value = label.getLabel();
+        return value instanceof OffsetLabel ? ((OffsetLabel) value).offset : -1;
+    }
+
+    /**
+     * @return whether some label of {@code method} knows its original offset
+     */
+    public static boolean hasOffsets(MethodNode method) {
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LabelNode && offset((LabelNode) insn) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class OffsetLabel extends Label {
+        private final int offset;
+
+        private OffsetLabel(int offset) {
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package obfuscator.transform.impl.data;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Original bytecode offsets of the labels of a tree, for {@link DashO320CallSiteCounters}.
+ * <br>
+ * ASM resolves label offsets only while writing, so the {@link LabelNode}s of a {@link ClassNode} filled by a
+ * plain {@link ClassReader} never learn where they were read from. {@link #read(byte[], int)} builds the tree
+ * through a reader whose labels carry their offset and keeps those labels in the nodes, until the method is
+ * written out.
+ */
+final class DashO320BytecodeOffsets {
+
+    private DashO320BytecodeOffsets() {
+    }
+
+    /**
+     * Same as {@code new ClassReader(classFile).accept(classNode, parsingOptions)}, with offsets kept.
+     */
+    static ClassNode read(byte[] classFile, int parsingOptions) {
+        ClassNode classNode = new ClassNode(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                MethodNode method = new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                    @Override
+                    protected LabelNode getLabelNode(Label label) {
+                        if (!(label.info instanceof LabelNode)) {
+                            // Wrap the reader's label instead of a fresh one, it is the one knowing its offset
+                            label.info = new LabelNode(label);
+                        }
+                        return (LabelNode) label.info;
+                    }
+                };
+                methods.add(method);
+                return method;
+            }
+        };
+        new ClassReader(classFile) {
+            @Override
+            protected Label readLabel(int bytecodeOffset, Label[] labels) {
+                if (labels[bytecodeOffset] == null) {
+                    labels[bytecodeOffset] = new OffsetLabel(bytecodeOffset);
+                }
+                return labels[bytecodeOffset];
+            }
+        }.accept(classNode, parsingOptions);
+        return classNode;
+    }
+
+    /**
+     * @return offset of {@code label} in the original class file, {@code -1} unless the tree came from
+     * {@link #read(byte[], int)} and the label from the class file
+     */
+    static int offset(LabelNode label) {
+        return label.getLabel() instanceof OffsetLabel offsetLabel ? offsetLabel.offset : -1;
+    }
+
+    /**
+     * @return whether some label of {@code method} knows its original offset
+     */
+    static boolean hasOffsets(MethodNode method) {
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LabelNode label && offset(label) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class OffsetLabel extends Label {
+        private final int offset;
+
+        private OffsetLabel(int offset) {
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package obfuscator.transform.impl.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of streamed class output, keyed by a SHA-256 of the transformer settings and the input class file.
+ * <br>
+ * One file: a header, the index sorted by key, then the class files back to back. Index and data are mapped
+ * read-only and searched in place, so opening costs nothing per entry. {@link #close()} rewrites the file with the
+ * entries this run used, hits and new ones, through a temporary file; a missing, foreign or damaged file counts as
+ * empty.
+ */
+final class DashO320ClassCache implements Closeable {
+
+    private static final int MAGIC = 0x44334331; // D3C1
+    private static final int HEADER = 16;
+    /**
+     * Key (2 longs), data offset (long), length and CRC32 of the class file (ints).
+     */
+    private static final int RECORD = 32;
+
+    /**
+     * First 128 bits of the SHA-256.
+     */
+    record Key(long high, long low) {
+        private static final Comparator<Key> ORDER = Comparator.comparingLong(Key::high).thenComparingLong(Key::low);
+    }
+
+    /**
+     * Where a hit lives in the mapped data.
+     */
+    private record Stored(long offset, int length, int crc) {
+    }
+
+    private final Path file;
+    private final byte[] fingerprint;
+    private final FileChannel channel;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    private final int count;
+    /**
+     * Entries the next file keeps, a {@link Stored} hit or the class file of a miss.
+     */
+    private final Map<Key, Object> live = new ConcurrentHashMap<>();
+
+    DashO320ClassCache(Path file, String fingerprint) throws IOException {
+        this.file = file;
+        this.fingerprint = fingerprint.getBytes(StandardCharsets.UTF_8);
+        FileChannel opened = Files.isRegularFile(file) ? FileChannel.open(file, StandardOpenOption.READ) : null;
+        ByteBuffer mappedIndex = null;
+        ByteBuffer mappedData = null;
+        int entries = 0;
+        try {
+            long size = opened == null ? 0 : opened.size();
+            if (size >= HEADER) {
+                ByteBuffer header = opened.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+                int n = header.getInt(8);
+                long dataStart = HEADER + (long) n * RECORD;
+                if (header.getInt(0) == MAGIC && n >= 0 && dataStart <= size && size - dataStart <= Integer.MAX_VALUE) {
+                    mappedIndex = opened.map(FileChannel.MapMode.READ_ONLY, HEADER, dataStart - HEADER);
+                    mappedData = opened.map(FileChannel.MapMode.READ_ONLY, dataStart, size - dataStart);
+                    entries = n;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+        this.channel = opened;
+        this.index = mappedIndex;
+        this.data = mappedData;
+        this.count = entries;
+    }
+
+    Key key(byte[] classFile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+        digest.update(fingerprint);
+        digest.update((byte) 0);
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(classFile));
+        return new Key(hash.getLong(), hash.getLong());
+    }
+
+    /**
+     * @return the class file stored for {@code key}, {@code null} on a miss or a damaged entry
+     */
+    byte[] get(Key key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = mid * RECORD;
+            int cmp = Key.ORDER.compare(new Key(index.getLong(record), index.getLong(record + 8)), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                Stored stored = new Stored(index.getLong(record + 16), index.getInt(record + 24),
+                        index.getInt(record + 28));
+                if (stored.offset() < 0 || stored.length() < 0 || stored.offset() + stored.length() > data.capacity()) {
+                    return null;
+                }
+                byte[] bytes = new byte[stored.length()];
+                data.get((int) stored.offset(), bytes);
+                if (crc(bytes) != stored.crc()) {
+                    return null;
+                }
+                live.put(key, stored);
+                return bytes;
+            }
+        }
+        return null;
+    }
+
+    void put(Key key, byte[] classFile) {
+        live.put(key, classFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            List<Map.Entry<Key, Object>> entries = new ArrayList<>(live.entrySet());
+            entries.sort(Map.Entry.comparingByKey(Key.ORDER));
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER + entries.size() * RECORD);
+                header.putInt(MAGIC).putInt(1).putInt(entries.size()).putInt(0);
+                long offset = 0;
+                for (Map.Entry<Key, Object> entry : entries) {
+                    Key key = entry.getKey();
+                    int length;
+                    int crc;
+                    if (entry.getValue() instanceof Stored stored) {
+                        length = stored.length();
+                        crc = stored.crc();
+                    } else {
+                        byte[] bytes = (byte[]) entry.getValue();
+                        length = bytes.length;
+                        crc = crc(bytes);
+                    }
+                    header.putLong(key.high()).putLong(key.low()).putLong(offset).putInt(length).putInt(crc);
+                    offset += length;
+                }
+                writeFully(out, header.flip());
+                for (Map.Entry<Key, Object> entry : entries) {
+                    writeFully(out, entry.getValue() instanceof Stored stored
+                            ? data.slice((int) stored.offset(), stored.length())
+                            : ByteBuffer.wrap((byte[]) entry.getValue()));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package obfuscator.transform.impl.data;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Code bytes a method may still grow by before it no longer fits the 64K {@code code_length} limit.
+ * <br>
+ * The method is measured once, then every addition books its own size with {@link #grow(int)}. Sizes are upper
+ * bounds of what {@code ClassWriter} emits: every {@code LDC} may become {@code LDC_W}, every switch takes its
+ * widest padding, and past 32K every jump may be widened to a {@code GOTO_W} form.
+ */
+final class DashO320CodeBudget implements Opcodes {
+
+    private static final int MAX_CODE = 65535;
+    /**
+     * Extra bytes of a jump once ASM widens it: {@code GOTO_W}, or an inverted jump over one for conditionals.
+     */
+    private static final int JUMP_WIDENING = 5;
+
+    private int used;
+    private int jumps;
+
+    private DashO320CodeBudget() {
+    }
+
+    /**
+     * @param method measured method, {@code null} for a {@code <clinit>} still to be created, a lone {@code RETURN}
+     */
+    static DashO320CodeBudget of(MethodNode method) {
+        DashO320CodeBudget budget = new DashO320CodeBudget();
+        if (method == null) {
+            budget.used = 1;
+            return budget;
+        }
+        for (AbstractInsnNode insn : method.instructions) {
+            budget.used += size(insn);
+            if (insn.getType() == AbstractInsnNode.JUMP_INSN) {
+                budget.jumps++;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Books {@code bytes} of straight-line code added to the method, if it still fits afterwards.
+     *
+     * @return whether they fit, nothing is booked otherwise
+     */
+    boolean grow(int bytes) {
+        int grown = used + bytes;
+        if (grown > limit(grown)) {
+            return false;
+        }
+        used = grown;
+        return true;
+    }
+
+    private int limit(int size) {
+        return size > Short.MAX_VALUE ? MAX_CODE - jumps * JUMP_WIDENING : MAX_CODE;
+    }
+
+    private static int size(AbstractInsnNode insn) {
+        return switch (insn.getType()) {
+            case AbstractInsnNode.LABEL, AbstractInsnNode.LINE, AbstractInsnNode.FRAME -> 0;
+            case AbstractInsnNode.INT_INSN -> insn.getOpcode() == SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN -> {
+                int var = ((VarInsnNode) insn).var;
+                yield var > 255 ? 4 : var < 4 && insn.getOpcode() != RET ? 1 : 2;
+            }
+            case AbstractInsnNode.LDC_INSN, AbstractInsnNode.TYPE_INSN, AbstractInsnNode.FIELD_INSN,
+                    AbstractInsnNode.JUMP_INSN -> 3;
+            case AbstractInsnNode.METHOD_INSN -> insn.getOpcode() == INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5;
+            case AbstractInsnNode.IINC_INSN -> {
+                IincInsnNode iinc = (IincInsnNode) insn;
+                yield iinc.var > 255 || iinc.incr != (byte) iinc.incr ? 6 : 3;
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN -> 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN -> 12 + 8 * ((LookupSwitchInsnNode) insn).keys.size();
+            case AbstractInsnNode.MULTIANEWARRAY_INSN -> 4;
+            default -> 1;
+        };
+    }
+}
@@ -0,0 +1,534 @@
+package obfuscator.transform.impl.data;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Runs {@link DashO320StringEncryption} over a jar file entry by entry instead of over a fully loaded jar.
+ * <br>
+ * The input is read through a {@link FileChannel} using its central directory. Non-class entries go to the
+ * output still compressed, channel to channel, and never touch the heap. Class entries are parsed on the calling
+ * thread, which also draws the decryptor names so the output does not depend on scheduling. They are transformed
+ * and deflated on the worker pool; in {@link DashO320StringEncryption.Mode#DIRECT} without hot sites or metrics
+ * through {@link DashO320VisitorEngine}, with only the method headers parsed up front. At most {@code window} classes
+ * are in flight and results are written in input order, so peak memory follows the window and the largest class
+ * rather than the jar size. With a {@link DashO320ClassCache}, classes whose bytes it knows skip all of that and
+ * are only deflated.
+ *
+ * <p>{@code COMPUTE_FRAMES} needs superclasses without the jar in memory, so a first pass keeps only the
+ * {@code name -> super} map of the jar's own classes; everything else is looked up in the running JDK, then in the
+ * library jars. A type found nowhere throws {@link TypeNotPresentException} rather than guessing a frame the
+ * verifier would reject. ZIP64 archives (over 65535 entries or 4 GiB) are rejected.
+ */
+final class DashO320JarStream implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int STORED = 0, DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1, FLAG_DESCRIPTOR = 8;
+    /**
+     * 1980-01-01 00:00, keeps injected holder entries reproducible.
+     */
+    private static final int DOS_EPOCH_DATE = 0x21;
+
+    /**
+     * One central directory record, everything needed to copy or rewrite the entry.
+     */
+    private record Entry(String name, byte[] nameBytes, int flags, int method, int time, int date, long crc,
+                         long compressedSize, long size, int externalAttributes, long headerOffset) {
+        boolean isClass() {
+            return name.endsWith(".class") && !name.endsWith("module-info.class")
+                    && (flags & FLAG_ENCRYPTED) == 0 && (method == STORED || method == DEFLATED);
+        }
+    }
+
+    /**
+     * A finished entry waiting for its turn in the output, {@code data} is {@code null} for a raw copy.
+     */
+    private record Result(Entry entry, byte[] data, long crc, long size) {
+    }
+
+    /**
+     * What frame merging needs of a library class.
+     */
+    private record Header(String superName, boolean itf) {
+    }
+
+    private final FileChannel in;
+    private final FileChannel out;
+    private final List<Entry> entries;
+    private final List<Entry> written = new ArrayList<>();
+    private final Map<String, String> superNames = new HashMap<>();
+    private final Map<String, Boolean> interfaces = new HashMap<>();
+    private final List<ZipFile> libraries = new ArrayList<>();
+    /**
+     * Library lookups by internal name, empty for a type no library has. Filled by the workers.
+     */
+    private final Map<String, Optional<Header>> libraryHeaders = new ConcurrentHashMap<>();
+
+    DashO320JarStream(Path input, Path output, List<Path> libraries) throws IOException {
+        this.in = FileChannel.open(input, StandardOpenOption.READ);
+        try {
+            this.entries = readCentralDirectory();
+            for (Path library : libraries) {
+                this.libraries.add(new ZipFile(library.toFile()));
+            }
+            this.out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            closeLibraries();
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams every entry through {@code transformer} and appends the shared decryptor holders and resources it
+     * used once all classes are done.
+     */
+    void run(DashO320StringEncryption transformer, int window, int parallelism, DashO320ClassCache cache)
+            throws IOException {
+        for (Entry entry : entries) {
+            if (entry.isClass()) {
+                ClassReader reader = new ClassReader(inflate(entry));
+                superNames.put(reader.getClassName(), reader.getSuperName());
+                interfaces.put(reader.getClassName(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+            }
+        }
+        // Holder entries must not shadow any class file of the input, parsed or not
+        List<String> classNames = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.name().endsWith(".class")) {
+                classNames.add(entry.name().substring(0, entry.name().length() - ".class".length()));
+            }
+        }
+        transformer.reserveClassNames(classNames);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<Future<Result>> pending = new ArrayDeque<>(window);
+        try {
+            for (Entry entry : entries) {
+                if (pending.size() == window) {
+                    write(pending.poll());
+                }
+                if (!entry.isClass()) {
+                    pending.add(CompletableFuture.completedFuture(new Result(entry, null, 0, 0)));
+                    continue;
+                }
+                byte[] classFile = inflate(entry);
+                DashO320ClassCache.Key key = cache == null ? null : cache.key(classFile);
+                byte[] cached = key == null ? null : cache.get(key);
+                if (cached != null) {
+                    // The name is still drawn, so the classes after this one get the names of a cold build
+                    ClassNode header = new ClassNode();
+                    new ClassReader(classFile).accept(header, ClassReader.SKIP_CODE);
+                    transformer.prepareStreamed(header);
+                    pending.add(pool.submit(() -> deflate(entry, cached)));
+                    continue;
+                }
+                if (transformer.isStreamable()) {
+                    // Names only need the method headers, the class itself is never built as a tree
+                    ClassNode header = new ClassNode();
+                    new ClassReader(classFile).accept(header, ClassReader.SKIP_CODE);
+                    String decryptorName = transformer.prepareStreamed(header);
+                    pending.add(pool.submit(() -> deflate(entry,
+                            remember(cache, key, transformFast(transformer, classFile, decryptorName)))));
+                    continue;
+                }
+                // Offsets kept for call site counters
+                ClassNode classNode = DashO320BytecodeOffsets.read(classFile, ClassReader.EXPAND_FRAMES);
+                String decryptorName = transformer.prepareStreamed(classNode);
+                pending.add(pool.submit(() -> {
+                    transformer.transformStreamed(classNode, decryptorName);
+                    return deflate(entry, remember(cache, key, toBytes(classNode)));
+                }));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (ClassNode holder : transformer.streamedHolders()) {
+            byte[] name = (holder.name + ".class").getBytes(StandardCharsets.UTF_8);
+            Entry entry = new Entry(holder.name + ".class", name, 0x800, DEFLATED, 0, DOS_EPOCH_DATE, 0, 0, 0, 0, 0);
+            write(deflate(entry, toBytes(holder)));
+        }
+        for (Map.Entry<String, byte[]> resource : transformer.streamedResources().entrySet()) {
+            byte[] name = resource.getKey().getBytes(StandardCharsets.UTF_8);
+            Entry entry = new Entry(resource.getKey(), name, 0x800, DEFLATED, 0, DOS_EPOCH_DATE, 0, 0, 0, 0, 0);
+            write(deflate(entry, resource.getValue()));
+        }
+        writeCentralDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeLibraries();
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void closeLibraries() throws IOException {
+        for (ZipFile library : libraries) {
+            library.close();
+        }
+    }
+
+    private static byte[] remember(DashO320ClassCache cache, DashO320ClassCache.Key key, byte[] classFile) {
+        if (cache != null) {
+            cache.put(key, classFile);
+        }
+        return classFile;
+    }
+
+    /**
+     * {@link DashO320VisitorEngine}, or the tree path for classes where it outgrows a method.
+     */
+    private byte[] transformFast(DashO320StringEncryption transformer, byte[] classFile, String decryptorName) {
+        try {
+            return DashO320VisitorEngine.transform(transformer, classFile, decryptorName);
+        } catch (MethodTooLargeException e) {
+            ClassNode classNode = DashO320BytecodeOffsets.read(classFile, ClassReader.EXPAND_FRAMES);
+            transformer.transformStreamed(classNode, decryptorName);
+            return toBytes(classNode);
+        }
+    }
+
+    private byte[] toBytes(ClassNode classNode) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return commonSuperClass(type1, type2);
+            }
+        };
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Same answer as {@link ClassWriter#getCommonSuperClass(String, String)}, from the jar's own classes first.
+     *
+     * @throws TypeNotPresentException if a type or one of its superclasses is nowhere to be found
+     */
+    private String commonSuperClass(String type1, String type2) {
+        if (isInterface(type1) || isInterface(type2)) {
+            return "java/lang/Object";
+        }
+        List<String> ancestors = new ArrayList<>();
+        for (String type = type1; type != null; type = superName(type)) {
+            ancestors.add(type);
+        }
+        for (String type = type2; type != null; type = superName(type)) {
+            if (ancestors.contains(type)) {
+                return type;
+            }
+        }
+        return "java/lang/Object";
+    }
+
+    private String superName(String type) {
+        if (superNames.containsKey(type)) {
+            return superNames.get(type);
+        }
+        Class<?> loaded = jdkClass(type);
+        if (loaded != null) {
+            return loaded.getSuperclass() == null ? null : loaded.getSuperclass().getName().replace('.', '/');
+        }
+        return libraryHeader(type).superName();
+    }
+
+    private boolean isInterface(String type) {
+        Boolean known = interfaces.get(type);
+        if (known != null) {
+            return known;
+        }
+        Class<?> loaded = jdkClass(type);
+        return loaded != null ? loaded.isInterface() : libraryHeader(type).itf();
+    }
+
+    private Header libraryHeader(String type) {
+        return libraryHeaders.computeIfAbsent(type, key -> {
+            for (ZipFile library : libraries) {
+                ZipEntry entry = library.getEntry(key + ".class");
+                if (entry == null) {
+                    continue;
+                }
+                try (InputStream stream = library.getInputStream(entry)) {
+                    ClassReader reader = new ClassReader(stream);
+                    return Optional.of(new Header(reader.getSuperName(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return Optional.empty();
+        }).orElseThrow(() -> new TypeNotPresentException(type.replace('/', '.'), null));
+    }
+
+    private static Class<?> jdkClass(String type) {
+        try {
+            return Class.forName(type.replace('/', '.'), false, ClassLoader.getPlatformClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = in.size();
+        int tail = (int) Math.min(size, 22 + 65535);
+        ByteBuffer end = read(size - tail, tail);
+        int eocd = -1;
+        for (int i = tail - 22; i >= 0; i--) {
+            if (end.getInt(i) == END_HEADER) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new IllegalStateException("Not a zip file, no end of central directory");
+        }
+        int count = end.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = end.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = end.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new IllegalStateException("ZIP64 jars are not supported");
+        }
+
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>(count);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER) {
+                throw new IllegalStateException("Corrupt central directory at entry " + i);
+            }
+            int flags = directory.getShort(position + 8) & 0xFFFF;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            directory.get(position + 46, name);
+            entries.add(new Entry(
+                    new String(name, (flags & 0x800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1),
+                    name,
+                    flags,
+                    directory.getShort(position + 10) & 0xFFFF,
+                    directory.getShort(position + 12) & 0xFFFF,
+                    directory.getShort(position + 14) & 0xFFFF,
+                    directory.getInt(position + 16) & 0xFFFFFFFFL,
+                    directory.getInt(position + 20) & 0xFFFFFFFFL,
+                    directory.getInt(position + 24) & 0xFFFFFFFFL,
+                    directory.getInt(position + 38),
+                    directory.getInt(position + 42) & 0xFFFFFFFFL));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * @return offset of the entry's compressed data, past its local header
+     */
+    private long dataOffset(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.headerOffset(), 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new IllegalStateException("Corrupt local header of " + entry.name());
+        }
+        return entry.headerOffset() + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private byte[] inflate(Entry entry) throws IOException {
+        ByteBuffer data = read(dataOffset(entry), (int) entry.compressedSize());
+        byte[] bytes = new byte[(int) entry.size()];
+        if (entry.method() == STORED) {
+            data.get(bytes);
+            return bytes;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int read = inflater.inflate(bytes, length, bytes.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated entry " + entry.name());
+                }
+                length += read;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt entry " + entry.name(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Result deflate(Entry entry, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, bytes.length + bytes.length / 1000 + 64)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return new Result(entry, Arrays.copyOf(buffer, length), crc.getValue(), bytes.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void write(Future<Result> pending) throws IOException {
+        try {
+            write(pending.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("DashO320 jar stream interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("DashO320 string encryption failed", e.getCause());
+        }
+    }
+
+    private void write(Result result) throws IOException {
+        Entry source = result.entry();
+        long offset = out.position();
+        Entry entry = result.data() == null
+                ? new Entry(source.name(), source.nameBytes(), source.flags() & ~FLAG_DESCRIPTOR, source.method(),
+                source.time(), source.date(), source.crc(), source.compressedSize(), source.size(),
+                source.externalAttributes(), offset)
+                : new Entry(source.name(), source.nameBytes(), source.flags() & ~FLAG_DESCRIPTOR, DEFLATED,
+                source.time(), source.date(), result.crc(), result.data().length, result.size(),
+                source.externalAttributes(), offset);
+        if (offset > 0xFFFFFFFFL || entry.compressedSize() > 0xFFFFFFFFL) {
+            throw new IllegalStateException("ZIP64 jars are not supported");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(30 + entry.nameBytes().length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER)
+                .putShort((short) 20)
+                .putShort((short) entry.flags())
+                .putShort((short) entry.method())
+                .putShort((short) entry.time())
+                .putShort((short) entry.date())
+                .putInt((int) entry.crc())
+                .putInt((int) entry.compressedSize())
+                .putInt((int) entry.size())
+                .putShort((short) entry.nameBytes().length)
+                .putShort((short) 0)
+                .put(entry.nameBytes());
+        writeFully(header.flip());
+
+        if (result.data() == null) {
+            long from = dataOffset(source);
+            long copied = 0;
+            while (copied < source.compressedSize()) {
+                copied += in.transferTo(from + copied, source.compressedSize() - copied, out);
+            }
+        } else {
+            writeFully(ByteBuffer.wrap(result.data()));
+        }
+        written.add(entry);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        if (written.size() >= 0xFFFF) {
+            throw new IllegalStateException("ZIP64 jars are not supported");
+        }
+        long directoryOffset = out.position();
+        for (Entry entry : written) {
+            ByteBuffer header = ByteBuffer.allocate(46 + entry.nameBytes().length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER)
+                    .putShort((short) 20)
+                    .putShort((short) 20)
+                    .putShort((short) entry.flags())
+                    .putShort((short) entry.method())
+                    .putShort((short) entry.time())
+                    .putShort((short) entry.date())
+                    .putInt((int) entry.crc())
+                    .putInt((int) entry.compressedSize())
+                    .putInt((int) entry.size())
+                    .putShort((short) entry.nameBytes().length)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(entry.externalAttributes())
+                    .putInt((int) entry.headerOffset())
+                    .put(entry.nameBytes());
+            writeFully(header.flip());
+        }
+        long directorySize = out.position() - directoryOffset;
+        if (directoryOffset > 0xFFFFFFFFL) {
+            throw new IllegalStateException("ZIP64 jars are not supported");
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_HEADER)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) written.size())
+                .putShort((short) written.size())
+                .putInt((int) directorySize)
+                .putInt((int) directoryOffset)
+                .putShort((short) 0);
+        writeFully(end.flip());
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IllegalStateException("Unexpected end of jar at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package obfuscator.transform.impl.data;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-class figures of a {@link DashO320StringEncryption} run: wall time, strings encrypted, skipped methods and
+ * growth, exported as JSON or, while a recording runs, as {@code obfuscator.DashO320Class} and
+ * {@code obfuscator.DashO320Skip} JFR events.
+ * <br>
+ * Growth compares the class tree before and after: code bytes sum instruction sizes as {@code ClassWriter} emits
+ * them (no {@code LDC_W}/wide promotion or switch padding), pool bytes the distinct constants referenced. Close
+ * estimates, good for ranking packages. Streamed classes take the tree path while metrics are on.
+ */
+public final class DashO320Metrics {
+
+    public enum SkipReason {
+        /**
+         * Excluded by the transformer's blacklist.
+         */
+        BLACKLISTED
+    }
+
+    private final Queue<ClassMetrics> classes = new ConcurrentLinkedQueue<>();
+    private final LongAdder sharedDecryptors = new LongAdder();
+
+    ClassMetrics begin(ClassNode classNode) {
+        ClassMetrics metrics = new ClassMetrics(classNode.name, 1);
+        metrics.event.begin();
+        metrics.start = System.nanoTime();
+        metrics.codeBytes = -codeBytes(classNode);
+        metrics.poolBytes = -poolBytes(classNode);
+        metrics.decryptors = -injectable(classNode);
+        return metrics;
+    }
+
+    void skipped(ClassMetrics metrics, MethodNode method, SkipReason reason) {
+        metrics.skipped.merge(reason, 1, Integer::sum);
+        SkipEvent event = new SkipEvent();
+        if (event.shouldCommit()) {
+            event.className = metrics.name;
+            event.method = method.name + method.desc;
+            event.reason = reason.name();
+            event.commit();
+        }
+    }
+
+    void end(ClassMetrics metrics, ClassNode classNode, int ldcStrings) {
+        metrics.nanos = System.nanoTime() - metrics.start;
+        metrics.ldcStrings = ldcStrings;
+        metrics.codeBytes += codeBytes(classNode);
+        metrics.poolBytes += poolBytes(classNode);
+        metrics.decryptors += injectable(classNode);
+        classes.add(metrics);
+
+        ClassEvent event = metrics.event;
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = metrics.name;
+            event.ldcStrings = ldcStrings;
+            event.skippedMethods = metrics.getSkippedMethods();
+            event.codeBytes = metrics.codeBytes;
+            event.poolBytes = metrics.poolBytes;
+            event.decryptors = metrics.decryptors;
+            event.commit();
+        }
+    }
+
+    void sharedDecryptorCreated() {
+        sharedDecryptors.increment();
+    }
+
+    /**
+     * @return classes measured so far, in completion order
+     */
+    public List<ClassMetrics> getClasses() {
+        return new ArrayList<>(classes);
+    }
+
+    /**
+     * @return the classes summed per package (internal name, {@code ""} for the default one), sorted by name
+     */
+    public Map<String, ClassMetrics> getPackages() {
+        Map<String, ClassMetrics> packages = new TreeMap<>();
+        for (ClassMetrics metrics : classes) {
+            int slash = metrics.name.lastIndexOf('/');
+            packages.computeIfAbsent(slash == -1 ? "" : metrics.name.substring(0, slash), name -> new ClassMetrics(name, 0))
+                    .add(metrics);
+        }
+        return packages;
+    }
+
+    /**
+     * @return shared holder classes created, their decryptors count against no class
+     */
+    public long getSharedDecryptors() {
+        return sharedDecryptors.sum();
+    }
+
+    /**
+     * Writes {@code {"sharedDecryptors": n, "totals": {...}, "packages": [...], "classes": [...]}}, every object
+     * shaped like {@link ClassMetrics}, the totals named {@code ""}.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        List<ClassMetrics> snapshot = getClasses();
+        ClassMetrics totals = new ClassMetrics("", 0);
+        snapshot.forEach(totals::add);
+        writer.write("{\n  \"sharedDecryptors\": " + getSharedDecryptors() + ",\n  \"totals\": " + totals.toJson());
+        writer.write(",\n  \"packages\": [" + toJson(getPackages().values()));
+        writer.write("],\n  \"classes\": [" + toJson(snapshot) + "]\n}\n");
+        writer.flush();
+    }
+
+    private static String toJson(Collection<ClassMetrics> list) {
+        StringBuilder json = new StringBuilder();
+        for (ClassMetrics metrics : list) {
+            json.append(json.isEmpty() ? "\n    " : ",\n    ").append(metrics.toJson());
+        }
+        return list.isEmpty() ? "" : json.append("\n  ").toString();
+    }
+
+    /**
+     * Figures of one class, or the sum over a package.
+     */
+    public static final class ClassMetrics {
+        private final String name;
+        private final Map<SkipReason, Integer> skipped = new EnumMap<>(SkipReason.class);
+        private final ClassEvent event = new ClassEvent();
+        private long start;
+        private long nanos;
+        private int ldcStrings;
+        private long codeBytes;
+        private long poolBytes;
+        private int decryptors;
+        private int classes;
+
+        private ClassMetrics(String name, int classes) {
+            this.name = name;
+            this.classes = classes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getClasses() {
+            return classes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getLdcStrings() {
+            return ldcStrings;
+        }
+
+        public Map<SkipReason, Integer> getSkipped() {
+            return Collections.unmodifiableMap(skipped);
+        }
+
+        public int getSkippedMethods() {
+            return skipped.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        public long getCodeBytes() {
+            return codeBytes;
+        }
+
+        public long getPoolBytes() {
+            return poolBytes;
+        }
+
+        /**
+         * @return methods injected: decryptors, their cached and bootstrap overloads
+         */
+        public int getDecryptors() {
+            return decryptors;
+        }
+
+        private void add(ClassMetrics other) {
+            classes += other.classes;
+            nanos += other.nanos;
+            ldcStrings += other.ldcStrings;
+            codeBytes += other.codeBytes;
+            poolBytes += other.poolBytes;
+            decryptors += other.decryptors;
+            other.skipped.forEach((reason, count) -> skipped.merge(reason, count, Integer::sum));
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder("{\"name\": \"");
+            for (char ch : name.toCharArray()) {
+                if (ch == '"' || ch == '\\') {
+                    json.append('\\').append(ch);
+                } else if (ch < 0x20) {
+                    json.append("\\u%04x".formatted((int) ch));
+                } else {
+                    json.append(ch);
+                }
+            }
+            json.append("\", \"classes\": ").append(classes)
+                    .append(", \"nanos\": ").append(nanos)
+                    .append(", \"ldcStrings\": ").append(ldcStrings)
+                    .append(", \"indyStrings\": 0, \"skipped\": {");
+            String separator = "";
+            for (Map.Entry<SkipReason, Integer> entry : skipped.entrySet()) {
+                json.append(separator).append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+                separator = ", ";
+            }
+            return json.append("}, \"codeBytes\": ").append(codeBytes)
+                    .append(", \"poolBytes\": ").append(poolBytes)
+                    .append(", \"decryptors\": ").append(decryptors)
+                    .append('}').toString();
+        }
+    }
+
+    private static int injectable(ClassNode classNode) {
+        return (int) classNode.methods.stream().filter(method -> !method.name.equals("<clinit>")).count();
+    }
+
+    private static long codeBytes(ClassNode classNode) {
+        long bytes = 0;
+        for (MethodNode method : classNode.methods) {
+            for (AbstractInsnNode insn : method.instructions) {
+                bytes += insnSize(insn);
+            }
+        }
+        return bytes;
+    }
+
+    private static int insnSize(AbstractInsnNode insn) {
+        return switch (insn.getType()) {
+            case AbstractInsnNode.LABEL, AbstractInsnNode.LINE, AbstractInsnNode.FRAME -> 0;
+            case AbstractInsnNode.INT_INSN -> insn.getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN -> {
+                int var = ((VarInsnNode) insn).var;
+                yield var > 255 ? 4 : var < 4 && insn.getOpcode() != Opcodes.RET ? 1 : 2;
+            }
+            case AbstractInsnNode.TYPE_INSN, AbstractInsnNode.FIELD_INSN, AbstractInsnNode.JUMP_INSN -> 3;
+            case AbstractInsnNode.METHOD_INSN -> insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5;
+            case AbstractInsnNode.LDC_INSN -> ((LdcInsnNode) insn).cst instanceof Long
+                    || ((LdcInsnNode) insn).cst instanceof Double ? 3 : 2;
+            case AbstractInsnNode.IINC_INSN -> {
+                IincInsnNode iinc = (IincInsnNode) insn;
+                yield iinc.var > 255 || iinc.incr != (byte) iinc.incr ? 6 : 3;
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN -> 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN -> 12 + 8 * ((LookupSwitchInsnNode) insn).keys.size();
+            case AbstractInsnNode.MULTIANEWARRAY_INSN -> 4;
+            default -> 1;
+        };
+    }
+
+    private static long poolBytes(ClassNode classNode) {
+        Pool pool = new Pool();
+        pool.type(classNode.name);
+        pool.type(classNode.superName);
+        classNode.interfaces.forEach(pool::type);
+        for (FieldNode field : classNode.fields) {
+            pool.utf8(field.name);
+            pool.utf8(field.desc);
+            if (field.value != null) {
+                pool.constant(field.value);
+            }
+        }
+        for (MethodNode method : classNode.methods) {
+            pool.utf8(method.name);
+            pool.utf8(method.desc);
+            if (method.exceptions != null) {
+                method.exceptions.forEach(pool::type);
+            }
+            method.tryCatchBlocks.forEach(tryCatch -> pool.type(tryCatch.type));
+            if (method.localVariables != null) {
+                for (LocalVariableNode local : method.localVariables) {
+                    pool.utf8(local.name);
+                    pool.utf8(local.desc);
+                }
+            }
+            for (AbstractInsnNode insn : method.instructions) {
+                if (insn instanceof LdcInsnNode ldc) {
+                    pool.constant(ldc.cst);
+                } else if (insn instanceof FieldInsnNode field) {
+                    pool.member('F', field.owner, field.name, field.desc);
+                } else if (insn instanceof MethodInsnNode call) {
+                    pool.member(call.itf ? 'I' : 'M', call.owner, call.name, call.desc);
+                } else if (insn instanceof InvokeDynamicInsnNode indy) {
+                    pool.dynamic('Y', indy.name, indy.desc, indy.bsm, indy.bsmArgs);
+                } else if (insn instanceof TypeInsnNode type) {
+                    pool.type(type.desc);
+                } else if (insn instanceof MultiANewArrayInsnNode multi) {
+                    pool.type(multi.desc);
+                }
+            }
+        }
+        return pool.bytes;
+    }
+
+    /**
+     * Distinct constant pool entries and their size in the class file.
+     */
+    private static final class Pool {
+        private final Set<String> entries = new HashSet<>();
+        private long bytes;
+
+        private boolean add(char tag, String key, int size) {
+            if (entries.add(tag + key)) {
+                bytes += size;
+                return true;
+            }
+            return false;
+        }
+
+        void utf8(String value) {
+            if (value != null) {
+                add('U', value, 3 + value.chars().map(ch -> ch >= 0x01 && ch <= 0x7F ? 1 : ch <= 0x7FF ? 2 : 3).sum());
+            }
+        }
+
+        void type(String internalName) {
+            if (internalName != null && add('C', internalName, 3)) {
+                utf8(internalName);
+            }
+        }
+
+        void member(char tag, String owner, String name, String desc) {
+            if (add(tag, owner + '.' + name + desc, 5)) {
+                type(owner);
+                nameAndType(name, desc);
+            }
+        }
+
+        private void nameAndType(String name, String desc) {
+            if (add('N', name + ' ' + desc, 5)) {
+                utf8(name);
+                utf8(desc);
+            }
+        }
+
+        void dynamic(char tag, String name, String desc, Handle bsm, Object[] args) {
+            nameAndType(name, desc);
+            add(tag, name + desc + bsm, 5);
+            constant(bsm);
+            for (Object arg : args) {
+                constant(arg);
+            }
+        }
+
+        void constant(Object value) {
+            if (value instanceof String string) {
+                if (add('S', string, 3)) {
+                    utf8(string);
+                }
+            } else if (value instanceof Integer || value instanceof Float) {
+                add(value instanceof Integer ? 'i' : 'f', value.toString(), 5);
+            } else if (value instanceof Long || value instanceof Double) {
+                add(value instanceof Long ? 'l' : 'd', value.toString(), 9);
+            } else if (value instanceof Type type && type.getSort() == Type.METHOD) {
+                if (add('T', type.getDescriptor(), 3)) {
+                    utf8(type.getDescriptor());
+                }
+            } else if (value instanceof Type type) {
+                type(type.getSort() == Type.OBJECT ? type.getInternalName() : type.getDescriptor());
+            } else if (value instanceof Handle handle) {
+                if (add('H', handle.toString(), 4)) {
+                    char tag = handle.getTag() <= Opcodes.H_PUTSTATIC ? 'F' : handle.isInterface() ? 'I' : 'M';
+                    member(tag, handle.getOwner(), handle.getName(), handle.getDesc());
+                }
+            } else if (value instanceof ConstantDynamic condy) {
+                Object[] args = new Object[condy.getBootstrapMethodArgumentCount()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = condy.getBootstrapMethodArgument(i);
+                }
+                dynamic('Q', condy.getName(), condy.getDescriptor(), condy.getBootstrapMethod(), args);
+            }
+        }
+    }
+
+    @Name("obfuscator.DashO320Class")
+    @Label("DashO320 String Encryption")
+    @Category({"Obfuscator", "String Encryption"})
+    @StackTrace(false)
+    static final class ClassEvent extends Event {
+        @Label("Class")
+        String className;
+        @Label("LDC Strings")
+        int ldcStrings;
+        @Label("Skipped Methods")
+        int skippedMethods;
+        @Label("Code Added")
+        @DataAmount
+        long codeBytes;
+        @Label("Constant Pool Added")
+        @DataAmount
+        long poolBytes;
+        @Label("Injected Methods")
+        int decryptors;
+    }
+
+    @Name("obfuscator.DashO320Skip")
+    @Label("DashO320 Skipped Method")
+    @Category({"Obfuscator", "String Encryption"})
+    @StackTrace(false)
+    static final class SkipEvent extends Event {
+        @Label("Class")
+        String className;
+        @Label("Method")
+        String method;
+        @Label("Reason")
+        String reason;
+    }
+}
@@ -3,8 +3,29 @@ package obfuscator.transform.impl.data;
 import a114.commonutil.ASMTools;
 import obfuscator.Obfuscator;
 import obfuscator.transform.Transformer;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
 
 /***
  * Source: <a href="https://www.exploit-db.com/docs/english/13132-cracking-string-encryption-in-java-obfuscated-bytecode.pdf">Cracking String Encryption in Java Obfuscated Bytecode</a>
@@ -12,11 +33,339 @@ import org.objectweb.asm.tree.*;
 public class DashO320StringEncryption extends Transformer {
 
     private static final String decryptorDesc = "(Ljava/lang/String;)Ljava/lang/String;";
+    private static final String cachedDecryptorDesc = "(Ljava/lang/String;I)Ljava/lang/String;";
+    private static final String bootstrapDesc =
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/String;";
+    private static final String VAR_HANDLE = "java/lang/invoke/VarHandle";
+    /**
+     * Upper bound of constants decrypted by one eager {@code <clinit>}, about 11 bytes each there.
+     */
+    private static final int MAX_EAGER_CONSTANTS = 2048;
+    /**
+     * The key is a full 16-bit counter, any encrypted char may need 3 bytes of modified UTF-8, so this many chars
+     * always fit one 65535-byte constant.
+     */
+    private static final int MAX_BLOB_CHARS = 65535 / 3;
+    /**
+     * {@code <clinit>} code around a table fill: the table length, {@code ANEWARRAY} and {@code PUTSTATIC}.
+     */
+    private static final int TABLE_BYTES = 9;
+    /**
+     * {@code <clinit>} code storing one decrypted constant or blob: {@code DUP}, the index, {@code LDC}, the
+     * decryptor call and {@code AASTORE}.
+     */
+    private static final int FILL_BYTES = 11;
+    /**
+     * What an {@link Mode#EAGER} call site adds over the {@code LDC}: {@code GETSTATIC}, the slot and
+     * {@code AALOAD}.
+     */
+    private static final int EAGER_SITE_GROWTH = 4;
+    private static final String SCRATCH_POOL = "java/util/concurrent/atomic/AtomicReferenceArray";
+    /**
+     * Slots of a {@link #setScratch(boolean) scratch} pool, picked by thread id. A power of two.
+     */
+    private static final int SCRATCH_STRIPES = 8;
+    /**
+     * Longest buffer a scratch pool keeps, longer strings take a fresh array each time.
+     */
+    private static final int SCRATCH_CAP = 1024;
+
+    /**
+     * How a rewritten call site gets its plain string back.
+     */
+    public enum Mode {
+        /**
+         * Decrypt on every execution.
+         */
+        DIRECT,
+        /**
+         * Decrypt once per call site into a per-class slot array, later executions are an array load.
+         * Interfaces and classes older than Java 9 stay {@link #DIRECT}.
+         */
+        CACHED,
+        /**
+         * Decrypt every constant of the class once in {@code <clinit>} into a private static table, call sites
+         * become {@code GETSTATIC}/index/{@code AALOAD}. Interfaces, and constants an existing {@code <clinit>} has
+         * no room left for, stay {@link #DIRECT}.
+         *
+         * @see #getInitCosts()
+         */
+        EAGER,
+        /**
+         * Replace the call site with a single {@code LDC} of a {@code ConstantDynamic} whose bootstrap is an
+         * overload of the decryptor and whose static argument is the payload. Resolved once by the JVM, then a
+         * true constant for the JIT. Classes older than Java 11 stay {@link #DIRECT}.
+         */
+        CONDY,
+        /**
+         * Pack every string of the class into one blob constant (several past the 64K limit), decrypted once per
+         * blob in {@code <clinit>}; call sites become {@code blobs[i].substring(start, end)}, concatenated for a
+         * literal too long for one blob. Results are not interned. Interfaces, and literals whose blob an existing
+         * {@code <clinit>} has no room left to decrypt, stay {@link #DIRECT}.
+         */
+        PACKED,
+        /**
+         * Move every string of the jar into one deduplicated resource served by a generated loader class, see
+         * {@link DashO320StringTable}; call sites become {@code loader.get(index)}, decrypted on first access.
+         * Needs {@link #transformJar(Path, Path, int)} to write the resource, classes handed to
+         * {@link #transformClass(ClassNode, String, Predicate)} directly stay {@link #DIRECT}.
+         *
+         * @see #setStringTable(String)
+         */
+        RESOURCE
+    }
+
+    /**
+     * Where call sites find the decryptor.
+     */
+    public enum SharedScope {
+        /**
+         * Every class with strings carries its own private decryptor.
+         */
+        NONE,
+        /**
+         * One synthetic public holder class for the whole jar.
+         */
+        JAR,
+        /**
+         * One synthetic package-private holder class per package.
+         */
+        PACKAGE
+    }
+
+    /**
+     * A decryptor method, either private to the class or living in a shared holder.
+     */
+    record Decryptor(String owner, String name, boolean itf) {
+        MethodInsnNode call() {
+            return new MethodInsnNode(INVOKESTATIC, owner, name, decryptorDesc, itf);
+        }
+    }
+
+    /**
+     * Class-init cost added by {@link Mode#EAGER} for a package. {@code nanos} is the build-time cost of the same
+     * cipher over the same constants, an estimate of what the eager {@code <clinit>} blocks will spend.
+     */
+    public static final class InitCost {
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder constants = new LongAdder();
+        private final LongAdder chars = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void record(int constants, long chars, long nanos) {
+            this.classes.increment();
+            this.constants.add(constants);
+            this.chars.add(chars);
+            this.nanos.add(nanos);
+        }
+
+        public long getClasses() {
+            return classes.sum();
+        }
+
+        public long getConstants() {
+            return constants.sum();
+        }
+
+        public long getChars() {
+            return chars.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return getClasses() + " classes, " + getConstants() + " constants, "
+                    + getChars() + " chars, ~" + getNanos() / 1000 + "us";
+        }
+    }
+
+    /**
+     * Number of worker threads used by {@link #transform()}, {@code 1} keeps everything on the calling thread.
+     */
+    private int parallelism = 1;
+    private Mode mode = Mode.DIRECT;
+    private final Map<String, InitCost> initCosts = new ConcurrentHashMap<>();
+    private SharedScope sharedScope = SharedScope.NONE;
+    private String sharedName = "DashO";
+    /**
+     * Holder classes of the running {@link #transform()} or {@link #transformJar(Path, Path, int)}, keyed by
+     * internal name; only the thread handing out classes adds to it.
+     */
+    private final Map<String, ClassNode> holders = new ConcurrentHashMap<>();
+    private final Set<String> usedHolders = ConcurrentHashMap.newKeySet();
+    /**
+     * Internal names of the classes in the jar being transformed, which no holder may take.
+     */
+    private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+    private BiFunction<ClassNode, MethodNode, Set<AbstractInsnNode>> hotSites;
+    private boolean hotPlain;
+    private Path cacheFile;
+    private List<Path> libraries = List.of();
+    private DashO320Metrics metrics;
+    /**
+     * Call site ids of a diagnostics build, renewed by every {@link #transform()} or
+     * {@link #transformJar(Path, Path, int)}.
+     */
+    private DashO320CallSiteCounters counters;
+    private String tableName = "DashOStrings";
+    private boolean scratch;
+    /**
+     * Strings of a {@link Mode#RESOURCE} run, renewed by every {@link #transformJar(Path, Path, int)}.
+     */
+    private DashO320StringTable table;
 
     public DashO320StringEncryption(Obfuscator.Context context) {
         super(context);
     }
 
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public SharedScope getSharedScope() {
+        return sharedScope;
+    }
+
+    /**
+     * Points every call site at one synthetic decryptor class per jar or per package instead of injecting a copy
+     * into each class, so the decryptor is loaded, verified and JIT-compiled once.
+     *
+     * @param sharedScope where the holder classes go
+     * @param sharedName  simple name of the holder class, placed in the default package for {@link SharedScope#JAR};
+     *                    followed by a number if the jar already has a class of that name
+     */
+    public void setSharedDecryptor(SharedScope sharedScope, String sharedName) {
+        this.sharedScope = sharedScope;
+        this.sharedName = sharedName;
+    }
+
+    /**
+     * Keeps strings on hot paths away from the per-call decryptor. {@code hotSites} names the hot {@code LDC}s of
+     * a method, for example from a load test profile; those become {@link Mode#CONDY} constants, or stay plain if
+     * {@code plain} is set or the class predates Java 11.
+     *
+     * @param hotSites hot instructions per method, compared by identity, {@code null} to treat every string alike
+     */
+    public void setHotSites(BiFunction<ClassNode, MethodNode, Set<AbstractInsnNode>> hotSites, boolean plain) {
+        this.hotSites = hotSites;
+        this.hotPlain = plain;
+    }
+
+    public Path getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Lets {@link #transformJar(Path, Path, int)} reuse the output of an earlier run for classes whose bytes did not
+     * change. Only for {@link SharedScope#NONE} without hot sites, where a class's output depends on nothing else.
+     * A reused class still draws its decryptor name from the dictionary, so every other class is named as in a
+     * build without the cache.
+     *
+     * @param cacheFile cache kept between builds, created on first use, {@code null} to disable
+     */
+    public void setCacheFile(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public List<Path> getLibraries() {
+        return libraries;
+    }
+
+    /**
+     * Jars holding the supertypes {@link #transformJar(Path, Path, int)} needs for stack map frames but the input
+     * does not contain, the input's dependencies. A supertype found neither there, in the input nor in the running
+     * JDK fails the class with a {@link TypeNotPresentException}.
+     *
+     * @param libraries library jars, searched in order
+     */
+    public void setLibraries(List<Path> libraries) {
+        this.libraries = List.copyOf(libraries);
+    }
+
+    public DashO320Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Measures every class into {@code metrics}, see {@link DashO320Metrics}. Costs two extra scans per class and
+     * keeps streamed classes on the tree path.
+     *
+     * @param metrics where per-class figures go, {@code null} to collect none
+     */
+    public void setMetrics(DashO320Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Diagnostics build: every call site becomes {@link Mode#DIRECT} and counts its executions in the generated
+     * class {@code counterClass}, added to the output like a shared holder. A run with
+     * {@code -Ddasho320.counters=file} dumps {@code owner#method:bci -> calls} on exit. Ids follow processing
+     * order, so with several workers they differ between builds. Not for release builds, each decryption pays for
+     * a {@code LongAdder} increment.
+     *
+     * @param counterClass internal name of the counter class, {@code null} to count nothing
+     */
+    public void setCallSiteCounters(String counterClass) {
+        this.counters = counterClass == null ? null : new DashO320CallSiteCounters(counterClass);
+    }
+
+    public String getStringTable() {
+        return tableName;
+    }
+
+    /**
+     * @param tableName internal name of the {@link Mode#RESOURCE} loader class, its resource is
+     *                  {@code tableName + ".bin"} next to it
+     */
+    public void setStringTable(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public boolean isScratch() {
+        return scratch;
+    }
+
+    /**
+     * Injected decryptors copy the payload into a buffer taken from a small striped pool instead of a fresh
+     * {@code char[]}, so a warm decrypt allocates the returned string only. The pool keeps buffers up to
+     * {@value #SCRATCH_CAP} chars, {@value #SCRATCH_STRIPES} per decryptor, and never pins or grows per thread,
+     * virtual ones included. Interfaces keep the plain decryptor.
+     */
+    public void setScratch(boolean scratch) {
+        this.scratch = scratch;
+    }
+
+    /**
+     * @return estimated eager {@code <clinit>} cost per package (internal name, {@code ""} for the default one)
+     */
+    public Map<String, InitCost> getInitCosts() {
+        return Collections.unmodifiableMap(initCosts);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs classes on a fork-join pool of the given size. Output is identical to the serial path, since
+     * decryptor names are still drawn from the dictionary in class order before any worker starts.
+     *
+     * @param parallelism worker count, {@code 1} for serial
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
     public static String encrypt(String input) {
         char[] buffer = new char[input.length()];
         input.getChars(0, input.length(), buffer, 0);
@@ -32,114 +381,863 @@ public class DashO320StringEncryption extends Transformer {
 
     @Override
     public void transform() {
-        for (ClassNode classNode : context.getJar().getClasses()) {
-            boolean any = false;
-            String decryptorName = context.getDictionary().nextMethodName(classNode, decryptorDesc);
-            for (MethodNode method : classNode.methods) {
-                if (blacklisted(classNode, method)) {
-                    continue;
+        if (mode == Mode.RESOURCE) {
+            throw new IllegalStateException("Mode.RESOURCE writes a jar resource, use transformJar");
+        }
+        List<ClassNode> classes = new ArrayList<>(context.getJar().getClasses());
+
+        // The dictionary is not thread-safe and its sequence decides the output, so names are resolved
+        // up front on this thread in the same order the serial loop used to ask for them.
+        String[] decryptorNames = new String[classes.size()];
+        for (int i = 0; i < decryptorNames.length; i++) {
+            decryptorNames[i] = context.getDictionary().nextMethodName(classes.get(i), decryptorDesc);
+        }
+        holders.clear();
+        usedHolders.clear();
+        classNames.clear();
+        resetCounters();
+        if (sharedScope != SharedScope.NONE) {
+            for (ClassNode classNode : classes) {
+                classNames.add(classNode.name);
+            }
+            for (ClassNode classNode : classes) {
+                holders.computeIfAbsent(holderName(classNode), name -> createHolder(name, classNode.version));
+            }
+        }
+
+        try {
+            transformClasses(classes, decryptorNames);
+        } finally {
+            for (String used : usedHolders) {
+                context.getJar().getClasses().add(holders.get(used));
+            }
+            ClassNode counterClass = counters == null ? null : counters.build();
+            if (counterClass != null) {
+                context.getJar().getClasses().add(counterClass);
+            }
+            holders.clear();
+        }
+    }
+
+    /**
+     * Same as {@link #transform()}, but streams the jar at {@code input} to {@code output} instead of working on
+     * the loaded jar, with at most {@code window} classes in memory at once. Non-class entries are copied without
+     * recompressing. Uses {@link #getParallelism()} workers and the {@link #setCacheFile(Path) cache file}, if any.
+     *
+     * @param window classes parsed ahead of the output, bounds peak memory
+     */
+    public void transformJar(Path input, Path output, int window) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1: " + window);
+        }
+        if (cacheFile != null && (sharedScope != SharedScope.NONE || mode == Mode.RESOURCE || hotSites != null
+                || counters != null)) {
+            throw new IllegalStateException(
+                    "Output with shared decryptors, a string resource, hot sites or counters can't be cached");
+        }
+        holders.clear();
+        usedHolders.clear();
+        classNames.clear();
+        resetCounters();
+        table = mode == Mode.RESOURCE ? new DashO320StringTable(tableName) : null;
+        DashO320ClassCache cache = cacheFile == null ? null
+                : new DashO320ClassCache(cacheFile, mode + ":" + scratch + ":" + context.getDictionary().getClass().getName());
+        try (DashO320JarStream stream = new DashO320JarStream(input, output, libraries)) {
+            stream.run(this, window, parallelism, cache);
+        } finally {
+            holders.clear();
+            table = null;
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+
+    /**
+     * Names every class entry of the streamed jar before the first class is prepared, so holders avoid them.
+     */
+    void reserveClassNames(Collection<String> names) {
+        classNames.addAll(names);
+    }
+
+    /**
+     * Draws the decryptor name of a streamed class, on the thread reading the jar.
+     */
+    String prepareStreamed(ClassNode classNode) {
+        String decryptorName = context.getDictionary().nextMethodName(classNode, decryptorDesc);
+        if (sharedScope != SharedScope.NONE) {
+            holders.computeIfAbsent(holderName(classNode), name -> createHolder(name, classNode.version));
+        }
+        return decryptorName;
+    }
+
+    void transformStreamed(ClassNode classNode, String decryptorName) {
+        transformClass(classNode, decryptorName);
+    }
+
+    /**
+     * @return whether streamed classes can take {@link DashO320VisitorEngine} instead of the tree
+     */
+    boolean isStreamable() {
+        return mode == Mode.DIRECT && hotSites == null && metrics == null && counters == null;
+    }
+
+    boolean skips(ClassNode classNode, MethodNode method) {
+        return blacklisted(classNode, method);
+    }
+
+    /**
+     * @return holders some streamed class points at, in name order, then the counter class of a diagnostics build
+     * and the loader of a {@link Mode#RESOURCE} run
+     */
+    List<ClassNode> streamedHolders() {
+        List<ClassNode> used = new ArrayList<>();
+        for (String name : new TreeSet<>(usedHolders)) {
+            used.add(holders.get(name));
+        }
+        ClassNode counterClass = counters == null ? null : counters.build();
+        if (counterClass != null) {
+            used.add(counterClass);
+        }
+        ClassNode loader = table == null ? null : table.build();
+        if (loader != null) {
+            used.add(loader);
+        }
+        return used;
+    }
+
+    /**
+     * @return jar entries to add next to {@link #streamedHolders()}, by entry name
+     */
+    Map<String, byte[]> streamedResources() {
+        byte[] resource = table == null ? null : table.buildResource();
+        return resource == null ? Collections.emptyMap() : Collections.singletonMap(table.getResourceName(), resource);
+    }
+
+    private void resetCounters() {
+        if (counters != null) {
+            counters = new DashO320CallSiteCounters(counters.getName());
+        }
+    }
+
+    private void transformClasses(List<ClassNode> classes, String[] decryptorNames) {
+        if (parallelism == 1) {
+            for (int i = 0; i < decryptorNames.length; i++) {
+                transformClass(classes.get(i), decryptorNames[i]);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, decryptorNames.length)
+                    .parallel()
+                    .forEach(i -> transformClass(classes.get(i), decryptorNames[i])))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("DashO320 string encryption interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("DashO320 string encryption failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void transformClass(ClassNode classNode, String decryptorName) {
+        transformClass(classNode, decryptorName, method -> blacklisted(classNode, method));
+    }
+
+    /**
+     * @return internal name of the holder serving {@code classNode}, the first of {@code sharedName},
+     * {@code sharedName1}, ... that no class of the jar has
+     */
+    private String holderName(ClassNode classNode) {
+        int slash = classNode.name.lastIndexOf('/');
+        String name = sharedScope == SharedScope.JAR || slash == -1 ? sharedName
+                : classNode.name.substring(0, slash + 1) + sharedName;
+        String free = name;
+        for (int i = 1; classNames.contains(free); i++) {
+            free = name + i;
+        }
+        return free;
+    }
+
+    /**
+     * Creates a holder class containing only the decryptor, public for {@link SharedScope#JAR} so every package
+     * can reach it. Takes the class file version of the first class it serves.
+     */
+    private ClassNode createHolder(String name, int version) {
+        int visibility = sharedScope == SharedScope.JAR ? ACC_PUBLIC : 0;
+        ClassNode holder = new ClassNode();
+        holder.visit(version, visibility | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object", null);
+        String decryptorName = context.getDictionary().nextMethodName(holder, decryptorDesc);
+        MethodNode method;
+        if (scratch) {
+            method = createDecryptor(decryptorName, name);
+            holder.fields.add(createScratchPool(decryptorName));
+        } else {
+            method = createDecryptor(decryptorName);
+        }
+        method.access = visibility | ACC_STATIC | ACC_SYNTHETIC;
+        holder.methods.add(method);
+        if (metrics != null) {
+            metrics.sharedDecryptorCreated();
+        }
+        return holder;
+    }
+
+    Decryptor decryptorFor(ClassNode classNode, String decryptorName) {
+        ClassNode holder = holders.isEmpty() ? null : holders.get(holderName(classNode));
+        if (holder == null) {
+            return new Decryptor(classNode.name, decryptorName, (classNode.access & ACC_INTERFACE) != 0);
+        }
+        usedHolders.add(holder.name);
+        return new Decryptor(holder.name, holder.methods.get(0).name, false);
+    }
+
+    /**
+     * Encrypts every string constant of a single class and injects its decryptor.
+     * Only touches {@code classNode}, so distinct classes may be handled concurrently.
+     * <br>
+     * Entry point for drivers that manage the class set themselves, such as benchmarks.
+     *
+     * @param decryptorName name of the decryptor to inject, must be free in {@code classNode}
+     * @param skip          methods to leave alone
+     */
+    public void transformClass(ClassNode classNode, String decryptorName, Predicate<MethodNode> skip) {
+        DashO320Metrics metrics = this.metrics;
+        DashO320Metrics.ClassMetrics classMetrics = metrics == null ? null : metrics.begin(classNode);
+        Decryptor decryptor = decryptorFor(classNode, decryptorName);
+        DashO320CallSiteCounters counters = this.counters;
+        DashO320StringTable table = this.table;
+        // Counting is per execution, so every site must reach the decryptor each time
+        Mode mode = counters == null ? this.mode : Mode.DIRECT;
+        if (mode == Mode.RESOURCE && table == null) {
+            mode = Mode.DIRECT;
+        }
+        boolean any = false;
+        boolean bootstrapNeeded = false;
+        boolean counted = false;
+        boolean itf = (classNode.access & ACC_INTERFACE) != 0;
+        boolean cached = mode == Mode.CACHED && canCache(classNode, decryptorName);
+        // Table fills go to the head of <clinit>, booked against the room it has left
+        DashO320CodeBudget initBudget = (mode == Mode.EAGER || mode == Mode.PACKED)
+                && canHoldTable(classNode, decryptorName) ? initBudget(classNode, mode) : null;
+        boolean eager = mode == Mode.EAGER && initBudget != null;
+        boolean condy = mode == Mode.CONDY && (classNode.version & 0xFFFF) >= V11;
+        boolean resource = mode == Mode.RESOURCE;
+        Blobs blobs = mode == Mode.PACKED && initBudget != null ? new Blobs(initBudget) : null;
+        Handle bootstrap = new Handle(H_INVOKESTATIC, classNode.name, decryptorName, bootstrapDesc, itf);
+        InsnList eagerInit = new InsnList();
+        long eagerChars = 0;
+        long eagerNanos = 0;
+        int slots = 0;
+        int strings = 0;
+        for (MethodNode method : classNode.methods) {
+            if (skip.test(method)) {
+                if (classMetrics != null) {
+                    metrics.skipped(classMetrics, method, DashO320Metrics.SkipReason.BLACKLISTED);
                 }
-                for (AbstractInsnNode insn : method.instructions) {
-                    if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof String ldcStr && ldcStr.length() > 2) {
-                        InsnList inst = new InsnList();
-                        inst.add(new LdcInsnNode(encrypt(ldcStr)));
-                        inst.add(new MethodInsnNode(INVOKESTATIC, classNode.name, decryptorName, decryptorDesc));
-                        method.instructions.insertBefore(ldc, inst);
-                        method.instructions.remove(ldc);
+                continue;
+            }
+            Set<AbstractInsnNode> hot = hotSites == null ? Collections.emptySet() : hotSites.apply(classNode, method);
+            if (!condy && !eager && blobs == null && !resource) {
+                // Per-call decryptors run once per loop entry instead of per iteration, as long as the method still
+                // fits 64K with every call site rewritten
+                DashO320LoopInvariants.Hoist hoist = DashO320LoopInvariants.hoist(classNode.name, method, 3);
+                if (hoist != null && !DashO320LoopInvariants.fits(method, 3, DashO320LoopInvariants.SITE_GROWTH)) {
+                    hoist.undo();
+                }
+            }
+            int bci = counters != null && !DashO320BytecodeOffsets.hasOffsets(method) ? -1 : 0;
+            int site = 0;
+            for (AbstractInsnNode insn : method.instructions) {
+                if (counters != null && insn instanceof LabelNode label && DashO320BytecodeOffsets.offset(label) >= 0) {
+                    bci = DashO320BytecodeOffsets.offset(label);
+                }
+                if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof String ldcStr && ldcStr.length() > 2) {
+                    boolean hotSite = hot.contains(ldc);
+                    if (hotSite && (hotPlain || (classNode.version & 0xFFFF) < V11)) {
+                        continue;
+                    }
+                    if (condy || hotSite) {
+                        method.instructions.set(ldc, new LdcInsnNode(new ConstantDynamic(
+                                decryptorName, "Ljava/lang/String;", bootstrap, encrypt(ldcStr))));
                         any = true;
+                        bootstrapNeeded = true;
+                        strings++;
+                        continue;
+                    }
+                    if (resource) {
+                        // No decryptor in this class, the loader decrypts the shared copy
+                        method.instructions.insertBefore(ldc, pushInt(table.register(ldcStr)));
+                        method.instructions.set(ldc, new MethodInsnNode(INVOKESTATIC, table.getName(), "get",
+                                DashO320StringTable.GET_DESCRIPTOR, false));
+                        strings++;
+                        continue;
+                    }
+                    InsnList inst = new InsnList();
+                    int[][] slices = blobs == null ? null : blobs.add(ldcStr);
+                    if (slices != null) {
+                        for (int i = 0; i < slices.length; i++) {
+                            inst.add(new FieldInsnNode(GETSTATIC, classNode.name, decryptorName, "[Ljava/lang/String;"));
+                            inst.add(pushInt(slices[i][0]));
+                            inst.add(new InsnNode(AALOAD));
+                            inst.add(pushInt(slices[i][1]));
+                            inst.add(pushInt(slices[i][2]));
+                            inst.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;"));
+                            if (i > 0) {
+                                inst.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "concat",
+                                        "(Ljava/lang/String;)Ljava/lang/String;"));
+                            }
+                        }
+                    } else if (eager && slots < MAX_EAGER_CONSTANTS && initBudget.grow(FILL_BYTES)) {
+                        long start = System.nanoTime();
+                        String encrypted = encrypt(ldcStr);
+                        eagerNanos += System.nanoTime() - start;
+                        eagerChars += ldcStr.length();
+                        eagerInit.add(new InsnNode(DUP));
+                        eagerInit.add(pushInt(slots));
+                        eagerInit.add(new LdcInsnNode(encrypted));
+                        eagerInit.add(decryptor.call());
+                        eagerInit.add(new InsnNode(AASTORE));
+                        inst.add(new FieldInsnNode(GETSTATIC, classNode.name, decryptorName, "[Ljava/lang/String;"));
+                        inst.add(pushInt(slots++));
+                        inst.add(new InsnNode(AALOAD));
+                    } else if (cached) {
+                        inst.add(new LdcInsnNode(encrypt(ldcStr)));
+                        inst.add(pushInt(slots++));
+                        inst.add(new MethodInsnNode(INVOKESTATIC, classNode.name, decryptorName, cachedDecryptorDesc));
+                    } else if (counters != null) {
+                        // Same overload shape as CACHED, the int is the id this call site is counted under
+                        inst.add(new LdcInsnNode(encrypt(ldcStr)));
+                        inst.add(pushInt(counters.register(classNode.name, method.name, bci, site++)));
+                        inst.add(new MethodInsnNode(INVOKESTATIC, classNode.name, decryptorName, cachedDecryptorDesc, itf));
+                        counted = true;
+                    } else {
+                        inst.add(new LdcInsnNode(encrypt(ldcStr)));
+                        inst.add(decryptor.call());
                     }
+                    method.instructions.insertBefore(ldc, inst);
+                    method.instructions.remove(ldc);
+                    any = true;
+                    strings++;
                 }
             }
-            if (any) {
-                MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC, decryptorName, decryptorDesc, null, null);
-                ASMTools.Instructions inst = ASMTools.Instructions.newBuilder();
-
-                // 为每个行号创建锚点标签
-                LabelNode line12Label = new LabelNode();
-                LabelNode line13Label = new LabelNode();
-                LabelNode line14Label = new LabelNode();
-                LabelNode line15Label = new LabelNode();
-                LabelNode line16Label = new LabelNode();
-                LabelNode line17Label = new LabelNode();
-                LabelNode loopStartLabel = new LabelNode();   // 循环开始（条件判断）
-                LabelNode loopEndLabel = new LabelNode();
-
-                // line 12: char[] ac = new char[s.length()]
-                inst.label(line12Label)
-                        .line(12, line12Label)
-                        .aload(0)                                 // s
-                        .method(INVOKEVIRTUAL, "java/lang/String", "length", "()I")
-                        .intInsn(NEWARRAY, T_CHAR)                // new char[s.length()]
-                        .astore(1);                               // ac
-
-                // line 13: s.getChars(0, s.length(), ac, 0)
-                inst.label(line13Label)
-                        .line(13, line13Label)
-                        .aload(0)                                 // s
-                        .insn(ICONST_0)                           // srcBegin = 0
-                        .aload(0)                                 // s
-                        .method(INVOKEVIRTUAL, "java/lang/String", "length", "()I")
-                        .aload(1)                                 // ac
-                        .insn(ICONST_0)                           // dstBegin = 0
-                        .method(INVOKEVIRTUAL, "java/lang/String", "getChars", "(II[CI)V");
-
-                // line 14: int c = 0
-                inst.label(line14Label)
-                        .line(14, line14Label)
-                        .insn(ICONST_0)
-                        .istore(2);                               // c = 0
-
-                // line 15: int i = 0  (循环初始化)
-                inst.label(line15Label)
-                        .line(15, line15Label)
-                        .insn(ICONST_0)
-                        .istore(3);                               // i = 0
-
-                // 循环开始（条件判断仍属于 line 15，但无需重复 line 节点）
-                inst.label(loopStartLabel);
-                // 检查 i < ac.length
-                inst.iload(3)                                 // i
-                        .aload(1)                                 // ac
-                        .insn(ARRAYLENGTH)                        // ac.length
-                        .jump(IF_ICMPGE, loopEndLabel);           // if i >= ac.length goto loopEnd
-
-                // line 16: 循环体
-                inst.label(line16Label)
-                        .line(16, line16Label)
-                        .aload(1)                                 // ac
-                        .iload(3)                                 // i
-                        .aload(1)                                 // ac
-                        .iload(3)                                 // i
-                        .insn(CALOAD)                             // ac[i]
-                        .insn(ICONST_1)                           // 1
-                        .insn(ISUB)                               // ac[i] - 1
-                        .iload(2)                                 // c (旧值)
-                        .iload(2)                                 // c (旧值，用于异或)
-                        .insn(ICONST_1)                           // 1
-                        .insn(IADD)                               // c + 1
-                        .insn(I2C)                                // (char)(c+1)
-                        .istore(2)                                // c = (char)(c+1)
-                        .insn(IXOR)                               // (ac[i]-1) ^ 旧c
-                        .insn(I2C)                                // 转回char
-                        .insn(CASTORE);                           // 存回ac[i]
-
-                // 循环步进 (无单独行号，延续 line 16 或 line 15)
-                inst.iinc(3, 1)                               // i++
-                        .jump(GOTO, loopStartLabel);              // goto loopStart
-
-                // line 17: 返回新字符串
-                inst.label(line17Label)
-                        .line(17, line17Label)
-                        .label(loopEndLabel)                      // 循环结束标签
-                        .type(NEW, "java/lang/String")
-                        .insn(DUP)
-                        .aload(1)                                 // ac
-                        .method(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V")
-                        .insn(ARETURN);
-
-                inst.replaceMethodInstructions(method);
-                classNode.methods.add(method);
+        }
+        if (any) {
+            if (decryptor.owner().equals(classNode.name) && usesScratch(classNode, decryptorName)) {
+                classNode.methods.add(createDecryptor(decryptorName, classNode.name));
+                classNode.fields.add(createScratchPool(decryptorName));
+            } else if (decryptor.owner().equals(classNode.name)) {
+                classNode.methods.add(createDecryptor(decryptorName));
+            }
+            if (bootstrapNeeded) {
+                classNode.methods.add(createBootstrap(decryptorName, decryptor));
+            }
+            if (counted) {
+                classNode.methods.add(createCounting(decryptorName, decryptor, counters.getName()));
             }
+            if (blobs != null && !blobs.isEmpty()) {
+                InsnList fill = new InsnList();
+                List<String> finished = blobs.finish();
+                for (int i = 0; i < finished.size(); i++) {
+                    fill.add(new InsnNode(DUP));
+                    fill.add(pushInt(i));
+                    fill.add(new LdcInsnNode(encrypt(finished.get(i))));
+                    fill.add(decryptor.call());
+                    fill.add(new InsnNode(AASTORE));
+                }
+                injectEagerTable(classNode, decryptorName, finished.size(), fill);
+            }
+        }
+        if (slots > 0 && cached) {
+            injectCachedDecryptor(classNode, decryptorName, slots, decryptor);
+        } else if (slots > 0) {
+            injectEagerTable(classNode, decryptorName, slots, eagerInit);
+            int slash = classNode.name.lastIndexOf('/');
+            initCosts.computeIfAbsent(slash == -1 ? "" : classNode.name.substring(0, slash), key -> new InitCost())
+                    .record(slots, eagerChars, eagerNanos);
+        }
+        if (classMetrics != null) {
+            metrics.end(classMetrics, classNode, strings);
+        }
+    }
+
+    /**
+     * Builds the line 12..17 decryptor, {@code private static String name(String)}.
+     */
+    public static MethodNode createDecryptor(String decryptorName) {
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC, decryptorName, decryptorDesc, null, null);
+        ASMTools.Instructions inst = ASMTools.Instructions.newBuilder();
+
+        // 为每个行号创建锚点标签
+        LabelNode line12Label = new LabelNode();
+        LabelNode line13Label = new LabelNode();
+        LabelNode line14Label = new LabelNode();
+        LabelNode line15Label = new LabelNode();
+        LabelNode line16Label = new LabelNode();
+        LabelNode line17Label = new LabelNode();
+        LabelNode loopStartLabel = new LabelNode();   // 循环开始（条件判断）
+        LabelNode loopEndLabel = new LabelNode();
+
+        // line 12: char[] ac = new char[s.length()]
+        inst.label(line12Label)
+                .line(12, line12Label)
+                .aload(0)                                 // s
+                .method(INVOKEVIRTUAL, "java/lang/String", "length", "()I")
+                .intInsn(NEWARRAY, T_CHAR)                // new char[s.length()]
+                .astore(1);                               // ac
+
+        // line 13: s.getChars(0, s.length(), ac, 0)
+        inst.label(line13Label)
+                .line(13, line13Label)
+                .aload(0)                                 // s
+                .insn(ICONST_0)                           // srcBegin = 0
+                .aload(0)                                 // s
+                .method(INVOKEVIRTUAL, "java/lang/String", "length", "()I")
+                .aload(1)                                 // ac
+                .insn(ICONST_0)                           // dstBegin = 0
+                .method(INVOKEVIRTUAL, "java/lang/String", "getChars", "(II[CI)V");
+
+        // line 14: int c = 0
+        inst.label(line14Label)
+                .line(14, line14Label)
+                .insn(ICONST_0)
+                .istore(2);                               // c = 0
+
+        // line 15: int i = 0  (循环初始化)
+        inst.label(line15Label)
+                .line(15, line15Label)
+                .insn(ICONST_0)
+                .istore(3);                               // i = 0
+
+        // 循环开始（条件判断仍属于 line 15，但无需重复 line 节点）
+        inst.label(loopStartLabel);
+        // 检查 i < ac.length
+        inst.iload(3)                                 // i
+                .aload(1)                                 // ac
+                .insn(ARRAYLENGTH)                        // ac.length
+                .jump(IF_ICMPGE, loopEndLabel);           // if i >= ac.length goto loopEnd
+
+        // line 16: 循环体
+        inst.label(line16Label)
+                .line(16, line16Label)
+                .aload(1)                                 // ac
+                .iload(3)                                 // i
+                .aload(1)                                 // ac
+                .iload(3)                                 // i
+                .insn(CALOAD)                             // ac[i]
+                .insn(ICONST_1)                           // 1
+                .insn(ISUB)                               // ac[i] - 1
+                .iload(2)                                 // c (旧值)
+                .iload(2)                                 // c (旧值，用于异或)
+                .insn(ICONST_1)                           // 1
+                .insn(IADD)                               // c + 1
+                .insn(I2C)                                // (char)(c+1)
+                .istore(2)                                // c = (char)(c+1)
+                .insn(IXOR)                               // (ac[i]-1) ^ 旧c
+                .insn(I2C)                                // 转回char
+                .insn(CASTORE);                           // 存回ac[i]
+
+        // 循环步进 (无单独行号，延续 line 16 或 line 15)
+        inst.iinc(3, 1)                               // i++
+                .jump(GOTO, loopStartLabel);              // goto loopStart
+
+        // line 17: 返回新字符串
+        inst.label(line17Label)
+                .line(17, line17Label)
+                .label(loopEndLabel)                      // 循环结束标签
+                .type(NEW, "java/lang/String")
+                .insn(DUP)
+                .aload(1)                                 // ac
+                .method(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V")
+                .insn(ARETURN);
+
+        inst.replaceMethodInstructions(method);
+        return method;
+    }
+
+    /**
+     * Lays out the plain strings of one class for {@link Mode#PACKED}, each literal stored once.
+     */
+    private static final class Blobs {
+        private final List<String> finished = new ArrayList<>();
+        private final StringBuilder current = new StringBuilder();
+        private final Map<String, int[][]> slices = new HashMap<>();
+        private final DashO320CodeBudget initBudget;
+        /**
+         * Blobs whose decrypt is booked in {@link #initBudget}.
+         */
+        private int fills;
+
+        private Blobs(DashO320CodeBudget initBudget) {
+            this.initBudget = initBudget;
+        }
+
+        /**
+         * @return {blob, start, end} of each piece of {@code value}, a single one unless {@code value} is longer
+         * than a blob holds; {@code null} if {@code <clinit>} has no room to decrypt the blobs it would open
+         */
+        int[][] add(String value) {
+            return slices.computeIfAbsent(value, key -> {
+                boolean fresh = current.length() + key.length() > MAX_BLOB_CHARS && key.length() <= MAX_BLOB_CHARS;
+                int offset = fresh ? 0 : current.length();
+                int last = finished.size() + (fresh ? 1 : 0) + (offset + key.length() - 1) / MAX_BLOB_CHARS;
+                if (last >= fills && !initBudget.grow((last + 1 - fills) * FILL_BYTES)) {
+                    return null;
+                }
+                fills = Math.max(fills, last + 1);
+                if (fresh) {
+                    next();
+                }
+                // Longer literals fill up blobs and go on in the next one
+                List<int[]> pieces = new ArrayList<>();
+                int from = 0;
+                do {
+                    if (current.length() == MAX_BLOB_CHARS) {
+                        next();
+                    }
+                    int to = Math.min(key.length(), from + MAX_BLOB_CHARS - current.length());
+                    int start = current.length();
+                    current.append(key, from, to);
+                    pieces.add(new int[]{finished.size(), start, current.length()});
+                    from = to;
+                } while (from < key.length());
+                return pieces.toArray(int[][]::new);
+            });
+        }
+
+        private void next() {
+            finished.add(current.toString());
+            current.setLength(0);
+        }
+
+        boolean isEmpty() {
+            return slices.isEmpty();
+        }
+
+        List<String> finish() {
+            finished.add(current.toString());
+            return finished;
+        }
+    }
+
+    /**
+     * Builds the line 12..17 decryptor on a pooled buffer instead of {@code new char[s.length()]}, see
+     * {@link #setScratch(boolean)}. The pool is the field {@link #createScratchPool(String)} adds to {@code owner}.
+     * <pre>
+     * int n = s.length();
+     * AtomicReferenceArray pool = scratch != null ? scratch : (scratch = new AtomicReferenceArray(8));
+     * int slot = (int) Thread.currentThread().getId() &amp; 7;
+     * char[] ac = n &lt;= 1024 ? (char[]) pool.getAndSet(slot, null) : null;
+     * if (ac == null || ac.length &lt; n) ac = new char[n];
+     * s.getChars(0, n, ac, 0);
+     * ... lines 14..16 up to n ...
+     * String result = new String(ac, 0, n);
+     * if (n &lt;= 1024) pool.set(slot, ac);
+     * return result;
+     * </pre>
+     * Taking the buffer out of its slot makes it exclusive without a lock, so a virtual thread never pins and two
+     * threads on one slot just allocate. A racy first fill of the pool only loses a buffer.
+     */
+    public static MethodNode createDecryptor(String decryptorName, String owner) {
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC, decryptorName, decryptorDesc, null, null);
+        String poolDesc = "L" + SCRATCH_POOL + ";";
+        InsnList inst = method.instructions;
+        LabelNode ready = new LabelNode();
+        LabelNode allocate = new LabelNode();
+        LabelNode copy = new LabelNode();
+        LabelNode loop = new LabelNode();
+        LabelNode done = new LabelNode();
+        LabelNode out = new LabelNode();
+
+        inst.add(new VarInsnNode(ALOAD, 0));
+        inst.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false));
+        inst.add(new VarInsnNode(ISTORE, 1));
+        inst.add(new FieldInsnNode(GETSTATIC, owner, decryptorName, poolDesc));
+        inst.add(new InsnNode(DUP));
+        inst.add(new JumpInsnNode(IFNONNULL, ready));
+        inst.add(new InsnNode(POP));
+        inst.add(new TypeInsnNode(NEW, SCRATCH_POOL));
+        inst.add(new InsnNode(DUP));
+        inst.add(pushInt(SCRATCH_STRIPES));
+        inst.add(new MethodInsnNode(INVOKESPECIAL, SCRATCH_POOL, "<init>", "(I)V", false));
+        inst.add(new InsnNode(DUP));
+        inst.add(new FieldInsnNode(PUTSTATIC, owner, decryptorName, poolDesc));
+        inst.add(ready);
+        inst.add(new VarInsnNode(ASTORE, 2));
+        inst.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Thread", "currentThread", "()Ljava/lang/Thread;", false));
+        inst.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Thread", "getId", "()J", false));
+        inst.add(new InsnNode(L2I));
+        inst.add(pushInt(SCRATCH_STRIPES - 1));
+        inst.add(new InsnNode(IAND));
+        inst.add(new VarInsnNode(ISTORE, 3));
+
+        inst.add(new InsnNode(ACONST_NULL));
+        inst.add(new VarInsnNode(ASTORE, 4));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(pushInt(SCRATCH_CAP));
+        inst.add(new JumpInsnNode(IF_ICMPGT, allocate));
+        inst.add(new VarInsnNode(ALOAD, 2));
+        inst.add(new VarInsnNode(ILOAD, 3));
+        inst.add(new InsnNode(ACONST_NULL));
+        inst.add(new MethodInsnNode(INVOKEVIRTUAL, SCRATCH_POOL, "getAndSet", "(ILjava/lang/Object;)Ljava/lang/Object;",
+                false));
+        inst.add(new TypeInsnNode(CHECKCAST, "[C"));
+        inst.add(new VarInsnNode(ASTORE, 4));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new JumpInsnNode(IFNULL, allocate));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new InsnNode(ARRAYLENGTH));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(new JumpInsnNode(IF_ICMPGE, copy));
+        inst.add(allocate);
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(new IntInsnNode(NEWARRAY, T_CHAR));
+        inst.add(new VarInsnNode(ASTORE, 4));
+        inst.add(copy);
+        inst.add(new VarInsnNode(ALOAD, 0));
+        inst.add(new InsnNode(ICONST_0));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new InsnNode(ICONST_0));
+        inst.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "getChars", "(II[CI)V", false));
+
+        // lines 14..16 with the loop bound in n instead of ac.length
+        inst.add(new InsnNode(ICONST_0));
+        inst.add(new VarInsnNode(ISTORE, 5));
+        inst.add(new InsnNode(ICONST_0));
+        inst.add(new VarInsnNode(ISTORE, 6));
+        inst.add(loop);
+        inst.add(new VarInsnNode(ILOAD, 6));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(new JumpInsnNode(IF_ICMPGE, done));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new VarInsnNode(ILOAD, 6));
+        inst.add(new InsnNode(DUP2));
+        inst.add(new InsnNode(CALOAD));
+        inst.add(new InsnNode(ICONST_1));
+        inst.add(new InsnNode(ISUB));
+        inst.add(new VarInsnNode(ILOAD, 5));
+        inst.add(new InsnNode(IXOR));
+        inst.add(new InsnNode(I2C));
+        inst.add(new InsnNode(CASTORE));
+        inst.add(new IincInsnNode(5, 1));
+        inst.add(new VarInsnNode(ILOAD, 5));
+        inst.add(new InsnNode(I2C));
+        inst.add(new VarInsnNode(ISTORE, 5));
+        inst.add(new IincInsnNode(6, 1));
+        inst.add(new JumpInsnNode(GOTO, loop));
+        inst.add(done);
+
+        inst.add(new TypeInsnNode(NEW, "java/lang/String"));
+        inst.add(new InsnNode(DUP));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new InsnNode(ICONST_0));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([CII)V", false));
+        inst.add(new VarInsnNode(ASTORE, 7));
+        inst.add(new VarInsnNode(ILOAD, 1));
+        inst.add(pushInt(SCRATCH_CAP));
+        inst.add(new JumpInsnNode(IF_ICMPGT, out));
+        inst.add(new VarInsnNode(ALOAD, 2));
+        inst.add(new VarInsnNode(ILOAD, 3));
+        inst.add(new VarInsnNode(ALOAD, 4));
+        inst.add(new MethodInsnNode(INVOKEVIRTUAL, SCRATCH_POOL, "set", "(ILjava/lang/Object;)V", false));
+        inst.add(out);
+        inst.add(new VarInsnNode(ALOAD, 7));
+        inst.add(new InsnNode(ARETURN));
+        return method;
+    }
+
+    /**
+     * The lazily filled pool of {@link #createDecryptor(String, String)}, a non-final static field named after
+     * the decryptor.
+     */
+    public static FieldNode createScratchPool(String decryptorName) {
+        return new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, decryptorName, "L" + SCRATCH_POOL + ";",
+                null, null);
+    }
+
+    /**
+     * @return whether the decryptor injected into {@code owner} takes a {@link #setScratch(boolean) scratch} pool,
+     * which needs a non-final static field of its name
+     */
+    boolean usesScratch(ClassNode owner, String decryptorName) {
+        return scratch && canHoldTable(owner, decryptorName);
+    }
+
+    /**
+     * {@code static String name(Lookup, String, Class, String s)}, the {@link Mode#CONDY} bootstrap handing its
+     * static argument to the decryptor.
+     */
+    private static MethodNode createBootstrap(String decryptorName, Decryptor decryptor) {
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, decryptorName, bootstrapDesc,
+                null, null);
+        method.instructions.add(new VarInsnNode(ALOAD, 3));
+        method.instructions.add(decryptor.call());
+        method.instructions.add(new InsnNode(ARETURN));
+        return method;
+    }
+
+    /**
+     * {@code static String name(String s, int id)}, the diagnostics overload counting call site {@code id} before
+     * it decrypts.
+     */
+    private static MethodNode createCounting(String decryptorName, Decryptor decryptor, String counterClass) {
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, decryptorName, cachedDecryptorDesc,
+                null, null);
+        method.instructions.add(new VarInsnNode(ILOAD, 1));
+        method.instructions.add(new MethodInsnNode(INVOKESTATIC, counterClass, "hit",
+                DashO320CallSiteCounters.HIT_DESCRIPTOR, false));
+        method.instructions.add(new VarInsnNode(ALOAD, 0));
+        method.instructions.add(decryptor.call());
+        method.instructions.add(new InsnNode(ARETURN));
+        return method;
+    }
+
+    private static boolean canCache(ClassNode classNode, String decryptorName) {
+        return (classNode.version & 0xFFFF) >= V9 && canHoldTable(classNode, decryptorName);
+    }
+
+    /**
+     * Tables are private static fields named after the decryptor, so no interfaces and no clashing field names.
+     */
+    private static boolean canHoldTable(ClassNode classNode, String decryptorName) {
+        return (classNode.access & ACC_INTERFACE) == 0
+                && classNode.fields.stream().noneMatch(field -> field.name.equals(decryptorName));
+    }
+
+    /**
+     * @return room left in {@code <clinit>} for the fill of a {@link Mode#EAGER} or {@link Mode#PACKED} table once
+     * the table itself and the rewrites of the initializer's own strings are booked, {@code null} if there is none
+     */
+    private static DashO320CodeBudget initBudget(ClassNode classNode, Mode mode) {
+        MethodNode clinit = null;
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals("<clinit>")) {
+                clinit = method;
+            }
+        }
+        DashO320CodeBudget budget = DashO320CodeBudget.of(clinit);
+        int bytes = TABLE_BYTES;
+        if (clinit != null) {
+            for (AbstractInsnNode insn : clinit.instructions) {
+                if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof String string && string.length() > 2) {
+                    bytes += mode == Mode.EAGER ? EAGER_SITE_GROWTH : packedSiteGrowth(string.length());
+                }
+            }
+        }
+        return budget.grow(bytes) ? budget : null;
+    }
+
+    /**
+     * @return upper bound of what a {@link Mode#PACKED} call site adds over the {@code LDC}: a 16 byte
+     * {@code blobs[i].substring(start, end)} per piece, each piece after the first concatenated
+     */
+    private static int packedSiteGrowth(int length) {
+        int pieces = length <= MAX_BLOB_CHARS ? 1 : (length + MAX_BLOB_CHARS - 1) / MAX_BLOB_CHARS + 1;
+        return pieces * 16 + (pieces - 1) * 3 - 3;
+    }
+
+    /**
+     * Adds the {@link Mode#EAGER} table and fills it at the head of {@code <clinit>}.
+     *
+     * @param fill stores every decrypted constant, runs with the new table on the stack
+     */
+    private static void injectEagerTable(ClassNode classNode, String decryptorName, int slots, InsnList fill) {
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                decryptorName, "[Ljava/lang/String;", null, null));
+        InsnList init = new InsnList();
+        init.add(pushInt(slots));
+        init.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+        init.add(fill);
+        init.add(new FieldInsnNode(PUTSTATIC, classNode.name, decryptorName, "[Ljava/lang/String;"));
+        staticInitializer(classNode).instructions.insert(init);
+    }
+
+    /**
+     * Adds {@code String name(String, int slot)} in front of the decryptor. Its fast path is a plain load from
+     * a per-class {@code String[]}, which is safe to read racily as strings are immutable. A miss decrypts and
+     * publishes through {@code VarHandle.compareAndExchange}, so concurrent first calls agree on one instance.
+     * Both slot fields reuse the decryptor name, fields and methods live in separate namespaces.
+     */
+    private static void injectCachedDecryptor(ClassNode classNode, String decryptorName, int slots, Decryptor decryptor) {
+        String owner = classNode.name;
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                decryptorName, "[Ljava/lang/String;", null, null));
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                decryptorName, "L" + VAR_HANDLE + ";", null, null));
+
+        InsnList init = new InsnList();
+        init.add(pushInt(slots));
+        init.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+        init.add(new FieldInsnNode(PUTSTATIC, owner, decryptorName, "[Ljava/lang/String;"));
+        init.add(new LdcInsnNode(Type.getType("[Ljava/lang/String;")));
+        init.add(new MethodInsnNode(INVOKESTATIC, "java/lang/invoke/MethodHandles", "arrayElementVarHandle",
+                "(Ljava/lang/Class;)L" + VAR_HANDLE + ";"));
+        init.add(new FieldInsnNode(PUTSTATIC, owner, decryptorName, "L" + VAR_HANDLE + ";"));
+        staticInitializer(classNode).instructions.insert(init);
+
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, decryptorName,
+                cachedDecryptorDesc, null, null);
+        LabelNode miss = new LabelNode();
+        LabelNode lost = new LabelNode();
+        InsnList insns = method.instructions;
+        insns.add(new FieldInsnNode(GETSTATIC, owner, decryptorName, "[Ljava/lang/String;"));
+        insns.add(new VarInsnNode(ILOAD, 1));
+        insns.add(new InsnNode(AALOAD));
+        insns.add(new InsnNode(DUP));
+        insns.add(new JumpInsnNode(IFNULL, miss));
+        insns.add(new InsnNode(ARETURN));
+        insns.add(miss);
+        insns.add(new InsnNode(POP));
+        insns.add(new VarInsnNode(ALOAD, 0));
+        insns.add(decryptor.call());
+        insns.add(new VarInsnNode(ASTORE, 2));
+        insns.add(new FieldInsnNode(GETSTATIC, owner, decryptorName, "L" + VAR_HANDLE + ";"));
+        insns.add(new FieldInsnNode(GETSTATIC, owner, decryptorName, "[Ljava/lang/String;"));
+        insns.add(new VarInsnNode(ILOAD, 1));
+        insns.add(new InsnNode(ACONST_NULL));
+        insns.add(new VarInsnNode(ALOAD, 2));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, VAR_HANDLE, "compareAndExchange",
+                "([Ljava/lang/String;ILjava/lang/String;Ljava/lang/String;)Ljava/lang/String;"));
+        insns.add(new InsnNode(DUP));
+        insns.add(new JumpInsnNode(IFNONNULL, lost));
+        insns.add(new InsnNode(POP));
+        insns.add(new VarInsnNode(ALOAD, 2));
+        insns.add(lost);
+        insns.add(new InsnNode(ARETURN));
+        classNode.methods.add(method);
+    }
+
+    /**
+     * Finds the class initializer, creating an empty one if the class has none.
+     */
+    private static MethodNode staticInitializer(ClassNode classNode) {
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals("<clinit>")) {
+                return method;
+            }
+        }
+        MethodNode clinit = new MethodNode(ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.instructions.add(new InsnNode(RETURN));
+        classNode.methods.add(clinit);
+        return clinit;
+    }
+
+    private static AbstractInsnNode pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            return new InsnNode(ICONST_0 + value);
+        }
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return new IntInsnNode(BIPUSH, value);
+        }
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return new IntInsnNode(SIPUSH, value);
         }
+        return new LdcInsnNode(value);
     }
 }
@@ -0,0 +1,281 @@
+package obfuscator.transform.impl.data;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jar-wide string table of {@link DashO320StringEncryption.Mode#RESOURCE}: every distinct literal of the jar gets one
+ * global index, is encrypted once and stored once in a binary resource next to the loader class that serves it.
+ * <br>
+ * The resource holds {@code count + 1} big-endian {@code int} byte offsets, then the encrypted UTF-16 chars of every
+ * string back to back. The loader reads it into a direct {@link ByteBuffer} on first use and decrypts each entry on
+ * its first access:
+ * <pre>
+ * public final class DashOStrings {
+ *     private static final ByteBuffer DATA;   // the whole resource, read once in &lt;clinit&gt;
+ *     private static final String[] STRINGS; // one slot per index
+ *
+ *     public static String get(int id) {
+ *         String s = STRINGS[id];
+ *         if (s == null) STRINGS[id] = s = decrypt(id);
+ *         return s;
+ *     }
+ *
+ *     private static String decrypt(int id) { // the line 16 cipher, interned like the literal it replaces
+ *     }
+ * }
+ * </pre>
+ * The slot is read and written racily, which is safe for immutable strings; threads racing on a first access
+ * decrypt more than once, but interning makes them all return the literal's instance. Indices follow processing
+ * order, so with several workers they differ between builds while the content does not.
+ */
+final class DashO320StringTable implements Opcodes {
+
+    static final String GET_DESCRIPTOR = "(I)Ljava/lang/String;";
+    private static final String BYTE_BUFFER = "java/nio/ByteBuffer";
+    private static final String CHANNEL = "java/nio/channels/ReadableByteChannel";
+
+    private final String name;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    DashO320StringTable(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return jar entry name of the resource, next to the loader class
+     */
+    String getResourceName() {
+        return name + ".bin";
+    }
+
+    /**
+     * @return global index of {@code value}, the same for every call site of the same literal
+     */
+    int register(String value) {
+        return ids.computeIfAbsent(value, key -> nextId.getAndIncrement());
+    }
+
+    /**
+     * @return the resource for every index handed out so far, {@code null} if there is none
+     */
+    byte[] buildResource() {
+        String[] strings = strings();
+        if (strings == null) {
+            return null;
+        }
+        long size = 4L * (strings.length + 1);
+        for (String value : strings) {
+            size += 2L * value.length();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("String resource " + getResourceName() + " exceeds 2 GiB");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        int offset = 4 * (strings.length + 1);
+        for (String value : strings) {
+            data.putInt(offset);
+            offset += 2 * value.length();
+        }
+        data.putInt(offset);
+        for (String value : strings) {
+            data.asCharBuffer().put(DashO320StringEncryption.encrypt(value));
+            data.position(data.position() + 2 * value.length());
+        }
+        return data.array();
+    }
+
+    /**
+     * @return the loader class for every index handed out so far, {@code null} if there is none
+     */
+    ClassNode build() {
+        String[] strings = strings();
+        if (strings == null) {
+            return null;
+        }
+        int size = 4 * (strings.length + 1);
+        for (String value : strings) {
+            size += 2 * value.length();
+        }
+        ClassNode loader = new ClassNode();
+        loader.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object", null);
+        loader.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "DATA", "L" + BYTE_BUFFER + ";", null, null).visitEnd();
+        loader.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "STRINGS", "[Ljava/lang/String;", null, null).visitEnd();
+        visitInit(loader.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null), size, strings.length);
+
+        MethodVisitor get = loader.visitMethod(ACC_PUBLIC | ACC_STATIC, "get", GET_DESCRIPTOR, null, null);
+        get.visitCode();
+        Label hit = new Label();
+        get.visitFieldInsn(GETSTATIC, name, "STRINGS", "[Ljava/lang/String;");
+        get.visitVarInsn(ILOAD, 0);
+        get.visitInsn(AALOAD);
+        get.visitInsn(DUP);
+        get.visitJumpInsn(IFNONNULL, hit);
+        get.visitInsn(POP);
+        get.visitFieldInsn(GETSTATIC, name, "STRINGS", "[Ljava/lang/String;");
+        get.visitVarInsn(ILOAD, 0);
+        get.visitVarInsn(ILOAD, 0);
+        get.visitMethodInsn(INVOKESTATIC, name, "decrypt", GET_DESCRIPTOR, false);
+        get.visitInsn(DUP_X2);
+        get.visitInsn(AASTORE);
+        get.visitLabel(hit);
+        get.visitInsn(ARETURN);
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+
+        visitDecrypt(loader.visitMethod(ACC_PRIVATE | ACC_STATIC, "decrypt", GET_DESCRIPTOR, null, null));
+        loader.visitEnd();
+        return loader;
+    }
+
+    /**
+     * <pre>
+     * ByteBuffer data = ByteBuffer.allocateDirect(size);
+     * ReadableByteChannel in = Channels.newChannel(DashOStrings.class.getResourceAsStream("/DashOStrings.bin"));
+     * while (data.hasRemaining()) {
+     *     if (in.read(data) &lt; 0) throw new IllegalStateException("/DashOStrings.bin");
+     * }
+     * in.close();
+     * DATA = data;
+     * STRINGS = new String[count];
+     * </pre>
+     * A jar entry has no file to map, so the resource is copied into off-heap memory once instead.
+     */
+    private void visitInit(MethodVisitor clinit, int size, int count) {
+        String path = "/" + getResourceName();
+        clinit.visitCode();
+        clinit.visitLdcInsn(size);
+        clinit.visitMethodInsn(INVOKESTATIC, BYTE_BUFFER, "allocateDirect", "(I)L" + BYTE_BUFFER + ";", false);
+        clinit.visitVarInsn(ASTORE, 0);
+        clinit.visitLdcInsn(Type.getObjectType(name));
+        clinit.visitLdcInsn(path);
+        clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getResourceAsStream",
+                "(Ljava/lang/String;)Ljava/io/InputStream;", false);
+        clinit.visitMethodInsn(INVOKESTATIC, "java/nio/channels/Channels", "newChannel",
+                "(Ljava/io/InputStream;)L" + CHANNEL + ";", false);
+        clinit.visitVarInsn(ASTORE, 1);
+
+        Label loop = new Label();
+        Label done = new Label();
+        clinit.visitLabel(loop);
+        clinit.visitVarInsn(ALOAD, 0);
+        clinit.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUFFER, "hasRemaining", "()Z", false);
+        clinit.visitJumpInsn(IFEQ, done);
+        clinit.visitVarInsn(ALOAD, 1);
+        clinit.visitVarInsn(ALOAD, 0);
+        clinit.visitMethodInsn(INVOKEINTERFACE, CHANNEL, "read", "(L" + BYTE_BUFFER + ";)I", true);
+        clinit.visitJumpInsn(IFGE, loop);
+        clinit.visitTypeInsn(NEW, "java/lang/IllegalStateException");
+        clinit.visitInsn(DUP);
+        clinit.visitLdcInsn(path);
+        clinit.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "(Ljava/lang/String;)V",
+                false);
+        clinit.visitInsn(ATHROW);
+        clinit.visitLabel(done);
+        clinit.visitVarInsn(ALOAD, 1);
+        clinit.visitMethodInsn(INVOKEINTERFACE, CHANNEL, "close", "()V", true);
+        clinit.visitVarInsn(ALOAD, 0);
+        clinit.visitFieldInsn(PUTSTATIC, name, "DATA", "L" + BYTE_BUFFER + ";");
+        clinit.visitLdcInsn(count);
+        clinit.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        clinit.visitFieldInsn(PUTSTATIC, name, "STRINGS", "[Ljava/lang/String;");
+        clinit.visitInsn(RETURN);
+        clinit.visitMaxs(0, 0);
+        clinit.visitEnd();
+    }
+
+    /**
+     * <pre>
+     * int start = DATA.getInt(id &lt;&lt; 2);
+     * char[] ac = new char[(DATA.getInt(id + 1 &lt;&lt; 2) - start) &gt;&gt; 1];
+     * for (int i = 0; i &lt; ac.length; i++) {
+     *     ac[i] = (char) ((DATA.getChar(start + (i &lt;&lt; 1)) - 1) ^ i);
+     * }
+     * return new String(ac).intern();
+     * </pre>
+     */
+    private void visitDecrypt(MethodVisitor decrypt) {
+        decrypt.visitCode();
+        decrypt.visitFieldInsn(GETSTATIC, name, "DATA", "L" + BYTE_BUFFER + ";");
+        decrypt.visitVarInsn(ILOAD, 0);
+        decrypt.visitInsn(ICONST_2);
+        decrypt.visitInsn(ISHL);
+        decrypt.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUFFER, "getInt", "(I)I", false);
+        decrypt.visitVarInsn(ISTORE, 1);
+        decrypt.visitFieldInsn(GETSTATIC, name, "DATA", "L" + BYTE_BUFFER + ";");
+        decrypt.visitVarInsn(ILOAD, 0);
+        decrypt.visitInsn(ICONST_1);
+        decrypt.visitInsn(IADD);
+        decrypt.visitInsn(ICONST_2);
+        decrypt.visitInsn(ISHL);
+        decrypt.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUFFER, "getInt", "(I)I", false);
+        decrypt.visitVarInsn(ILOAD, 1);
+        decrypt.visitInsn(ISUB);
+        decrypt.visitInsn(ICONST_1);
+        decrypt.visitInsn(ISHR);
+        decrypt.visitIntInsn(NEWARRAY, T_CHAR);
+        decrypt.visitVarInsn(ASTORE, 2);
+
+        Label loop = new Label();
+        Label done = new Label();
+        decrypt.visitInsn(ICONST_0);
+        decrypt.visitVarInsn(ISTORE, 3);
+        decrypt.visitLabel(loop);
+        decrypt.visitVarInsn(ILOAD, 3);
+        decrypt.visitVarInsn(ALOAD, 2);
+        decrypt.visitInsn(ARRAYLENGTH);
+        decrypt.visitJumpInsn(IF_ICMPGE, done);
+        decrypt.visitVarInsn(ALOAD, 2);
+        decrypt.visitVarInsn(ILOAD, 3);
+        decrypt.visitFieldInsn(GETSTATIC, name, "DATA", "L" + BYTE_BUFFER + ";");
+        decrypt.visitVarInsn(ILOAD, 1);
+        decrypt.visitVarInsn(ILOAD, 3);
+        decrypt.visitInsn(ICONST_1);
+        decrypt.visitInsn(ISHL);
+        decrypt.visitInsn(IADD);
+        decrypt.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUFFER, "getChar", "(I)C", false);
+        decrypt.visitInsn(ICONST_1);
+        decrypt.visitInsn(ISUB);
+        decrypt.visitVarInsn(ILOAD, 3);
+        decrypt.visitInsn(IXOR);
+        decrypt.visitInsn(I2C);
+        decrypt.visitInsn(CASTORE);
+        decrypt.visitIincInsn(3, 1);
+        decrypt.visitJumpInsn(GOTO, loop);
+        decrypt.visitLabel(done);
+        decrypt.visitTypeInsn(NEW, "java/lang/String");
+        decrypt.visitInsn(DUP);
+        decrypt.visitVarInsn(ALOAD, 2);
+        decrypt.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+        decrypt.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
+        decrypt.visitInsn(ARETURN);
+        decrypt.visitMaxs(0, 0);
+        decrypt.visitEnd();
+    }
+
+    /**
+     * @return every registered string by index, {@code null} if there is none
+     */
+    private String[] strings() {
+        int count = nextId.get();
+        if (count == 0) {
+            return null;
+        }
+        String[] strings = new String[count];
+        ids.forEach((value, id) -> strings[id] = value);
+        return strings;
+    }
+}
@@ -0,0 +1,198 @@
+package obfuscator.transform.impl.data;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass {@code ClassReader -> ClassWriter} form of {@link DashO320StringEncryption.Mode#DIRECT}: each
+ * {@code LDC "..."} becomes encrypted {@code LDC} + {@code INVOKESTATIC} as the reader visits it, no tree is built.
+ * Methods with a string inside a loop are buffered into a {@link MethodNode} for {@link DashO320LoopInvariants}
+ * and then replayed through the same rewrite. A cheap scan over the class finds them before anything is written.
+ * <br>
+ * Inserted code is straight-line, so existing frames stay valid and only the injected decryptor gets its frames
+ * computed, in a scratch class that needs no class hierarchy. Throws {@link org.objectweb.asm.MethodTooLargeException}
+ * like the tree path would, callers fall back to it.
+ */
+final class DashO320VisitorEngine implements Opcodes {
+
+    private DashO320VisitorEngine() {
+    }
+
+    static byte[] transform(DashO320StringEncryption transformer, byte[] classFile, String decryptorName) {
+        ClassReader reader = new ClassReader(classFile);
+        Set<String> loopMethods = new HashSet<>();
+        reader.accept(new ClassVisitor(ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                return new LoopScanner(() -> loopMethods.add(name + descriptor));
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        // No reader passed on: the plain strings must not survive in a copied constant pool
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        reader.accept(new StringClassVisitor(transformer, writer, decryptorName, loopMethods), ClassReader.EXPAND_FRAMES);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Flags a method with a backward branch over a string constant.
+     */
+    private static final class LoopScanner extends MethodVisitor {
+        private final Runnable flag;
+        private final Map<Label, Integer> labels = new HashMap<>();
+        private int position;
+        private int lastString = -1;
+
+        private LoopScanner(Runnable flag) {
+            super(ASM9);
+            this.flag = flag;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            labels.put(label, position++);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (value instanceof String string && string.length() > 2) {
+                lastString = position;
+            }
+            position++;
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            branch(label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... targets) {
+            branch(dflt);
+            for (Label target : targets) {
+                branch(target);
+            }
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] targets) {
+            branch(dflt);
+            for (Label target : targets) {
+                branch(target);
+            }
+        }
+
+        private void branch(Label target) {
+            Integer start = labels.get(target);
+            if (start != null && lastString >= start) {
+                flag.run();
+            }
+            position++;
+        }
+    }
+
+    private static final class StringClassVisitor extends ClassVisitor {
+        private final DashO320StringEncryption transformer;
+        private final String decryptorName;
+        private final Set<String> loopMethods;
+        private final ClassNode header = new ClassNode();
+        private DashO320StringEncryption.Decryptor decryptor;
+        private boolean any;
+
+        private StringClassVisitor(DashO320StringEncryption transformer, ClassVisitor writer, String decryptorName,
+                                   Set<String> loopMethods) {
+            super(ASM9, writer);
+            this.transformer = transformer;
+            this.decryptorName = decryptorName;
+            this.loopMethods = loopMethods;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            header.visit(version, access, name, signature, superName, interfaces);
+            decryptor = transformer.decryptorFor(header, decryptorName);
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            header.fields.add(new FieldNode(access, name, descriptor, signature, value));
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (transformer.skips(header, new MethodNode(access, name, descriptor, signature, exceptions))) {
+                return next;
+            }
+            MethodVisitor rewrite = new MethodVisitor(ASM9, next) {
+                @Override
+                public void visitLdcInsn(Object value) {
+                    if (value instanceof String string && string.length() > 2) {
+                        super.visitLdcInsn(DashO320StringEncryption.encrypt(string));
+                        decryptor.call().accept(mv);
+                        any = true;
+                    } else {
+                        super.visitLdcInsn(value);
+                    }
+                }
+            };
+            if (!loopMethods.contains(name + descriptor)) {
+                return rewrite;
+            }
+            return new MethodNode(ASM9, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd() {
+                    DashO320LoopInvariants.Hoist hoist = DashO320LoopInvariants.hoist(header.name, this, 3);
+                    if (hoist != null && !DashO320LoopInvariants.fits(this, 3, DashO320LoopInvariants.SITE_GROWTH)) {
+                        hoist.undo();
+                    }
+                    accept(rewrite);
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            if (any && decryptor.owner().equals(header.name) && transformer.usesScratch(header, decryptorName)) {
+                DashO320StringEncryption.createScratchPool(decryptorName).accept(cv);
+                withFrames(DashO320StringEncryption.createDecryptor(decryptorName, header.name), header.version)
+                        .accept(cv);
+            } else if (any && decryptor.owner().equals(header.name)) {
+                withFrames(DashO320StringEncryption.createDecryptor(decryptorName), header.version).accept(cv);
+            }
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Computes the frames of the decryptor alone, its locals are JDK types only.
+     */
+    private static MethodNode withFrames(MethodNode method, int version) {
+        ClassWriter scratch = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        scratch.visit(Math.max(version & 0xFFFF, V1_6), ACC_SUPER, "DashO320Frames", null, "java/lang/Object", null);
+        method.accept(scratch);
+        scratch.visitEnd();
+
+        ClassNode framed = new ClassNode();
+        new ClassReader(scratch.toByteArray()).accept(framed, (version & 0xFFFF) < V1_6 ? ClassReader.SKIP_FRAMES : 0);
+        return framed.methods.get(0);
+    }
+}
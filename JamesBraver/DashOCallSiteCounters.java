@@ -0,0 +1,252 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call site ids of a diagnostics build and the runtime class that counts them.
+ * <br>
+ * Every counted call site gets an id and a {@code owner#method(descriptor):bci} name. The bytecode index is that of the
+ * closest original label before the string, the start of its statement, so the dump can be read back with
+ * {@link HotnessProfile#fromFile} as is. Classes not read through {@link BytecodeOffsets} have no offsets left,
+ * their sites are numbered within the method instead, {@code owner#method(descriptor)[n]}. The generated class looks like:
+ * <pre>
+ * public final class DashOCounters extends Thread {
+ *     private static final String[] SITES = (chunk0 + chunk1 + ...).split("\n");
+ *     private static final LongAdder[] COUNTS = ...; // one per site
+ *
+ *     static { Runtime.getRuntime().addShutdownHook(new DashOCounters()); }
+ *
+ *     public static void hit(int id) { COUNTS[id].increment(); }
+ *
+ *     public void run() { // "site -> calls" for every site that ran, to -Ddasho.counters=file or stderr
+ *     }
+ * }
+ * </pre>
+ *
+ * @author a114mc
+ */
+final class DashOCallSiteCounters implements Opcodes {
+
+    static final String HIT_DESCRIPTOR = "(I)V";
+    /**
+     * System property naming the dump file, the dump goes to {@code System.err} without it.
+     */
+    static final String OUTPUT_PROPERTY = "dasho.counters";
+    private static final String LONG_ADDER = "java/util/concurrent/atomic/LongAdder";
+    private static final int MAX_CHUNK_BYTES = 65535;
+
+    private final String name;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, String> sites = new ConcurrentHashMap<>();
+
+    DashOCallSiteCounters(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param method name and descriptor of the method holding the call site
+     * @param bci    offset of the closest original label before the call site, {@code 0} if there is none,
+     *               {@code -1} if the method was not read through {@link BytecodeOffsets}
+     * @param site   index of the call site within its method, names it as {@code owner#method[site]} when the
+     *               offset is unknown
+     * @return id of a new call site
+     */
+    int register(String owner, String method, int bci, int site) {
+        int id = nextId.getAndIncrement();
+        String position = bci >= 0 ? ":" + bci : "[" + site + "]";
+        sites.put(id, (owner + '#' + method + position).replace('\n', ' '));
+        return id;
+    }
+
+    /**
+     * @return the counter class for every id handed out so far, {@code null} if there is none
+     */
+    ClassNode build() {
+        int count = nextId.get();
+        if (count == 0) {
+            return null;
+        }
+        ClassNode holder = new ClassNode();
+        holder.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Thread", null);
+        holder.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "SITES", "[Ljava/lang/String;", null, null).visitEnd();
+        holder.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "COUNTS", "[L" + LONG_ADDER + ";", null, null).visitEnd();
+
+        MethodVisitor init = holder.visitMethod(ACC_PRIVATE, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Thread", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor clinit = holder.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.visitCode();
+        clinit.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        clinit.visitInsn(DUP);
+        clinit.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        StringBuilder chunk = new StringBuilder();
+        int chunkBytes = 0;
+        for (int id = 0; id < count; id++) {
+            String site = sites.get(id) + '\n';
+            int bytes = utf8Length(site);
+            if (chunkBytes + bytes > MAX_CHUNK_BYTES) {
+                append(clinit, chunk.toString());
+                chunk.setLength(0);
+                chunkBytes = 0;
+            }
+            chunk.append(site);
+            chunkBytes += bytes;
+        }
+        append(clinit, chunk.toString());
+        clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        clinit.visitLdcInsn("\n");
+        clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "split", "(Ljava/lang/String;)[Ljava/lang/String;",
+                false);
+        clinit.visitFieldInsn(PUTSTATIC, name, "SITES", "[Ljava/lang/String;");
+        clinit.visitLdcInsn(count);
+        clinit.visitTypeInsn(ANEWARRAY, LONG_ADDER);
+        clinit.visitFieldInsn(PUTSTATIC, name, "COUNTS", "[L" + LONG_ADDER + ";");
+        // for (int i = 0; i < COUNTS.length; i++) COUNTS[i] = new LongAdder();
+        Label loop = new Label();
+        Label done = new Label();
+        clinit.visitInsn(ICONST_0);
+        clinit.visitVarInsn(ISTORE, 0);
+        clinit.visitLabel(loop);
+        clinit.visitVarInsn(ILOAD, 0);
+        clinit.visitLdcInsn(count);
+        clinit.visitJumpInsn(IF_ICMPGE, done);
+        clinit.visitFieldInsn(GETSTATIC, name, "COUNTS", "[L" + LONG_ADDER + ";");
+        clinit.visitVarInsn(ILOAD, 0);
+        clinit.visitTypeInsn(NEW, LONG_ADDER);
+        clinit.visitInsn(DUP);
+        clinit.visitMethodInsn(INVOKESPECIAL, LONG_ADDER, "<init>", "()V", false);
+        clinit.visitInsn(AASTORE);
+        clinit.visitIincInsn(0, 1);
+        clinit.visitJumpInsn(GOTO, loop);
+        clinit.visitLabel(done);
+        clinit.visitMethodInsn(INVOKESTATIC, "java/lang/Runtime", "getRuntime", "()Ljava/lang/Runtime;", false);
+        clinit.visitTypeInsn(NEW, name);
+        clinit.visitInsn(DUP);
+        clinit.visitMethodInsn(INVOKESPECIAL, name, "<init>", "()V", false);
+        clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Runtime", "addShutdownHook", "(Ljava/lang/Thread;)V", false);
+        clinit.visitInsn(RETURN);
+        clinit.visitMaxs(0, 0);
+        clinit.visitEnd();
+
+        MethodVisitor hit = holder.visitMethod(ACC_PUBLIC | ACC_STATIC, "hit", HIT_DESCRIPTOR, null, null);
+        hit.visitCode();
+        hit.visitFieldInsn(GETSTATIC, name, "COUNTS", "[L" + LONG_ADDER + ";");
+        hit.visitVarInsn(ILOAD, 0);
+        hit.visitInsn(AALOAD);
+        hit.visitMethodInsn(INVOKEVIRTUAL, LONG_ADDER, "increment", "()V", false);
+        hit.visitInsn(RETURN);
+        hit.visitMaxs(0, 0);
+        hit.visitEnd();
+
+        visitRun(holder.visitMethod(ACC_PUBLIC, "run", "()V", null, null));
+        holder.visitEnd();
+        return holder;
+    }
+
+    /**
+     * <pre>
+     * PrintStream out = System.getProperty(OUTPUT_PROPERTY) == null ? System.err : new PrintStream(file);
+     * for (int i = 0; i &lt; SITES.length; i++) {
+     *     long calls = COUNTS[i].sum();
+     *     if (calls != 0) out.println(SITES[i] + " -> " + calls);
+     * }
+     * out.flush();
+     * </pre>
+     */
+    private void visitRun(MethodVisitor run) {
+        run.visitCode();
+        Label toStderr = new Label();
+        Label print = new Label();
+        run.visitLdcInsn(OUTPUT_PROPERTY);
+        run.visitMethodInsn(INVOKESTATIC, "java/lang/System", "getProperty", "(Ljava/lang/String;)Ljava/lang/String;",
+                false);
+        run.visitInsn(DUP);
+        run.visitJumpInsn(IFNULL, toStderr);
+        run.visitTypeInsn(NEW, "java/io/PrintStream");
+        run.visitInsn(DUP_X1);
+        run.visitInsn(SWAP);
+        run.visitMethodInsn(INVOKESPECIAL, "java/io/PrintStream", "<init>", "(Ljava/lang/String;)V", false);
+        run.visitJumpInsn(GOTO, print);
+        run.visitLabel(toStderr);
+        run.visitInsn(POP);
+        run.visitFieldInsn(GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
+        run.visitLabel(print);
+        run.visitVarInsn(ASTORE, 1);
+
+        Label loop = new Label();
+        Label next = new Label();
+        Label done = new Label();
+        run.visitInsn(ICONST_0);
+        run.visitVarInsn(ISTORE, 2);
+        run.visitLabel(loop);
+        run.visitVarInsn(ILOAD, 2);
+        run.visitFieldInsn(GETSTATIC, name, "SITES", "[Ljava/lang/String;");
+        run.visitInsn(ARRAYLENGTH);
+        run.visitJumpInsn(IF_ICMPGE, done);
+        run.visitFieldInsn(GETSTATIC, name, "COUNTS", "[L" + LONG_ADDER + ";");
+        run.visitVarInsn(ILOAD, 2);
+        run.visitInsn(AALOAD);
+        run.visitMethodInsn(INVOKEVIRTUAL, LONG_ADDER, "sum", "()J", false);
+        run.visitVarInsn(LSTORE, 3);
+        run.visitVarInsn(LLOAD, 3);
+        run.visitInsn(LCONST_0);
+        run.visitInsn(LCMP);
+        run.visitJumpInsn(IFEQ, next);
+        run.visitVarInsn(ALOAD, 1);
+        run.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        run.visitInsn(DUP);
+        run.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        run.visitFieldInsn(GETSTATIC, name, "SITES", "[Ljava/lang/String;");
+        run.visitVarInsn(ILOAD, 2);
+        run.visitInsn(AALOAD);
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        run.visitLdcInsn(" -> ");
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        run.visitVarInsn(LLOAD, 3);
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(J)Ljava/lang/StringBuilder;", false);
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        run.visitLabel(next);
+        run.visitIincInsn(2, 1);
+        run.visitJumpInsn(GOTO, loop);
+        run.visitLabel(done);
+        run.visitVarInsn(ALOAD, 1);
+        run.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "flush", "()V", false);
+        run.visitInsn(RETURN);
+        run.visitMaxs(0, 0);
+        run.visitEnd();
+    }
+
+    private static void append(MethodVisitor clinit, String chunk) {
+        clinit.visitLdcInsn(chunk);
+        clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            length += ch >= 0x01 && ch <= 0x7F ? 1 : ch <= 0x7FF ? 2 : 3;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,289 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import me.iris.ambien.obfuscator.Ambien;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of {@link DashOVisitorEngine} output, so an incremental build only encrypts the classes that
+ * changed since the previous one.
+ * <br>
+ * An entry is keyed by a SHA-256 of the engine settings and the input class file; a hit returns the class file
+ * emitted last time and never runs the engine. Only engines whose output is self-contained can be cached, see
+ * {@link DashOStringEncryption#isCacheable()}: a class pointing at a shared holder would need that exact holder
+ * again.
+ *
+ * <p>The cache is one file: a header, the entry index sorted by key, then the class files back to back. Index and
+ * data are memory-mapped read-only and looked up by binary search, so opening costs nothing per entry and a lookup
+ * stays a few page reads even at 100k classes. {@link #close()} writes the entries used by this run, hits and new
+ * ones, to a temporary file that then replaces the old one; entries of deleted or changed classes drop out there.
+ * A missing, foreign or damaged file counts as empty.
+ *
+ * @author a114mc
+ */
+public final class DashOClassCache implements Closeable {
+
+    private static final int MAGIC = 0x44534331; // DSC1
+    private static final int HEADER = 16;
+    /**
+     * Key (2 longs), data offset (long), length and CRC32 of the class file (ints).
+     */
+    private static final int RECORD = 32;
+
+    private final Path file;
+    private final DashOStringEncryption engine;
+    private final byte[] fingerprint;
+    private final FileChannel channel;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    private final int count;
+    /**
+     * Entries the next file keeps: {@code long[]{offset, length, crc}} of a hit, or the class file of a miss.
+     */
+    private final Map<Key, Object> live = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private DashOClassCache(Path file, DashOStringEncryption engine, FileChannel channel, ByteBuffer index,
+                            ByteBuffer data, int count) {
+        this.file = file;
+        this.engine = engine;
+        this.fingerprint = engine.getConfig().fingerprint().getBytes(StandardCharsets.UTF_8);
+        this.channel = channel;
+        this.index = index;
+        this.data = data;
+        this.count = count;
+    }
+
+    /**
+     * Maps the cache at {@code file} for {@code engine}, the file is created on {@link #close()} if absent.
+     *
+     * @throws IllegalArgumentException if the engine's output depends on more than the class itself
+     */
+    public static DashOClassCache open(Path file, DashOStringEncryption engine) throws IOException {
+        if (!engine.isCacheable()) {
+            throw new IllegalArgumentException("DashO output with shared decryptors or a hotness profile can't be cached");
+        }
+        if (!Files.isRegularFile(file)) {
+            return new DashOClassCache(file, engine, null, null, null, 0);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size >= HEADER) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+                int count = header.getInt(8);
+                long dataStart = HEADER + (long) count * RECORD;
+                if (header.getInt(0) == MAGIC && count >= 0 && dataStart <= size
+                        && size - dataStart <= Integer.MAX_VALUE) {
+                    return new DashOClassCache(file, engine, channel,
+                            channel.map(FileChannel.MapMode.READ_ONLY, HEADER, dataStart - HEADER),
+                            channel.map(FileChannel.MapMode.READ_ONLY, dataStart, size - dataStart), count);
+                }
+            }
+            Ambien.logger.warn("Ignoring unreadable DashO class cache " + file);
+            channel.close();
+            return new DashOClassCache(file, engine, null, null, null, 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@link DashOVisitorEngine#transform(DashOStringEncryption, byte[])}, or its output from an earlier run for
+     * the same input. Safe to call concurrently.
+     *
+     * @return the transformed class file
+     */
+    public byte[] transform(byte[] classFile) {
+        Key key = key(classFile);
+        byte[] cached = get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        byte[] transformed = DashOVisitorEngine.transform(engine, classFile);
+        live.put(key, transformed);
+        return transformed;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Replaces the cache file with the entries used since {@link #open}, then unmaps the old one.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            List<Map.Entry<Key, Object>> entries = new ArrayList<>(live.entrySet());
+            entries.sort(Map.Entry.comparingByKey());
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER + entries.size() * RECORD);
+                header.putInt(MAGIC).putInt(1).putInt(entries.size()).putInt(0);
+                long offset = 0;
+                for (Map.Entry<Key, Object> entry : entries) {
+                    int length = length(entry.getValue());
+                    header.putLong(entry.getKey().high).putLong(entry.getKey().low).putLong(offset)
+                            .putInt(length).putInt(crc(entry.getValue()));
+                    offset += length;
+                }
+                writeFully(out, (ByteBuffer) header.flip());
+                for (Map.Entry<Key, Object> entry : entries) {
+                    writeFully(out, slice(entry.getValue()));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Ambien.logger.info("DashO class cache: " + getHits() + " hits, " + getMisses() + " misses, "
+                    + entries.size() + " entries kept");
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private byte[] get(Key key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = mid * RECORD;
+            int cmp = Key.compare(index.getLong(record), index.getLong(record + 8), key.high, key.low);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                long[] location = {index.getLong(record + 16), index.getInt(record + 24), index.getInt(record + 28)};
+                byte[] bytes = read(location);
+                if (bytes == null) {
+                    return null;
+                }
+                live.put(key, location);
+                return bytes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the stored class file, {@code null} if it lies outside the file or fails its CRC
+     */
+    private byte[] read(long[] location) {
+        if (location[0] < 0 || location[1] < 0 || location[0] + location[1] > data.capacity()) {
+            return null;
+        }
+        ByteBuffer view = data.duplicate();
+        view.position((int) location[0]);
+        byte[] bytes = new byte[(int) location[1]];
+        view.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue() == (int) location[2] ? bytes : null;
+    }
+
+    private Key key(byte[] classFile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+        digest.update(fingerprint);
+        digest.update((byte) 0);
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(classFile));
+        return new Key(hash.getLong(), hash.getLong());
+    }
+
+    private static int length(Object value) {
+        return value instanceof byte[] ? ((byte[]) value).length : (int) ((long[]) value)[1];
+    }
+
+    private static int crc(Object value) {
+        if (value instanceof long[]) {
+            return (int) ((long[]) value)[2];
+        }
+        CRC32 crc = new CRC32();
+        crc.update((byte[]) value);
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer slice(Object value) {
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        long[] location = (long[]) value;
+        ByteBuffer view = data.duplicate();
+        view.position((int) location[0]);
+        view.limit((int) (location[0] + location[1]));
+        return view;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * First 128 bits of the SHA-256.
+     */
+    private static final class Key implements Comparable<Key> {
+        private final long high;
+        private final long low;
+
+        private Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        private static int compare(long high1, long low1, long high2, long low2) {
+            int cmp = Long.compare(high1, high2);
+            return cmp != 0 ? cmp : Long.compare(low1, low2);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            return compare(high, low, other.high, other.low);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).high == high && ((Key) o).low == low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high ^ low);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Code bytes a method may still grow by before it no longer fits the 64K {@code code_length} limit.
+ * <br>
+ * The method is measured once, then every rewrite asks for its own delta with {@link #replace}, so a large
+ * method gets encrypted up to the limit instead of being skipped whole. Code added elsewhere in the method, like
+ * the tables filled in {@code <clinit>}, is booked with {@link #grow(int)}. Sizes are upper bounds of what
+ * {@code ClassWriter} emits: every {@code LDC} may become {@code LDC_W}, every switch takes its widest padding, and
+ * past 32K every jump may be widened to a {@code GOTO_W} form.
+ *
+ * @author a114mc
+ */
+final class DashOCodeBudget implements Opcodes {
+
+    private static final int MAX_CODE = 65535;
+    /**
+     * Extra bytes of a jump once ASM widens it: {@code GOTO_W}, or an inverted jump over one for conditionals.
+     */
+    private static final int JUMP_WIDENING = 5;
+
+    private int used;
+    private int jumps;
+
+    private DashOCodeBudget() {
+    }
+
+    static DashOCodeBudget of(MethodNode method) {
+        DashOCodeBudget budget = new DashOCodeBudget();
+        for (AbstractInsnNode insn : method.instructions) {
+            budget.used += size(insn);
+            if (insn.getType() == AbstractInsnNode.JUMP_INSN) {
+                budget.jumps++;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * @return whether the method as measured already can't be written
+     */
+    boolean isExceeded() {
+        return used > limit(used);
+    }
+
+    /**
+     * Books the replacement of {@code node} by {@code replacement}, if the method still fits afterwards.
+     * Replacements are straight-line, they add no jumps.
+     *
+     * @return whether the replacement fits, nothing is booked otherwise
+     */
+    boolean replace(AbstractInsnNode node, InsnList replacement) {
+        int grown = used - size(node);
+        for (AbstractInsnNode insn : replacement) {
+            grown += size(insn);
+        }
+        if (grown > limit(grown)) {
+            return false;
+        }
+        used = grown;
+        return true;
+    }
+
+    /**
+     * Books {@code bytes} of straight-line code added to the method, such as a table fill at the head of
+     * {@code <clinit>}, if the method still fits afterwards.
+     *
+     * @return whether they fit, nothing is booked otherwise
+     */
+    boolean grow(int bytes) {
+        int grown = used + bytes;
+        if (grown > limit(grown)) {
+            return false;
+        }
+        used = grown;
+        return true;
+    }
+
+    /**
+     * Gives back bytes booked by {@link #grow(int)} for code that ends up not being added after all.
+     */
+    void shrink(int bytes) {
+        used -= bytes;
+    }
+
+    /**
+     * @return upper bound of the code bytes of {@code insns}
+     */
+    static int size(InsnList insns) {
+        int size = 0;
+        for (AbstractInsnNode insn : insns) {
+            size += size(insn);
+        }
+        return size;
+    }
+
+    private int limit(int size) {
+        return size > Short.MAX_VALUE ? MAX_CODE - jumps * JUMP_WIDENING : MAX_CODE;
+    }
+
+    private static int size(AbstractInsnNode insn) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.LABEL:
+            case AbstractInsnNode.LINE:
+            case AbstractInsnNode.FRAME:
+                return 0;
+            case AbstractInsnNode.INT_INSN:
+                return insn.getOpcode() == SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN: {
+                int var = ((VarInsnNode) insn).var;
+                return var > 255 ? 4 : var < 4 && insn.getOpcode() != RET ? 1 : 2;
+            }
+            case AbstractInsnNode.LDC_INSN:
+            case AbstractInsnNode.TYPE_INSN:
+            case AbstractInsnNode.FIELD_INSN:
+            case AbstractInsnNode.JUMP_INSN:
+                return 3;
+            case AbstractInsnNode.METHOD_INSN:
+                return insn.getOpcode() == INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return 5;
+            case AbstractInsnNode.IINC_INSN: {
+                IincInsnNode iinc = (IincInsnNode) insn;
+                return iinc.var > 255 || iinc.incr != (byte) iinc.incr ? 6 : 3;
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                return 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                return 12 + 8 * ((LookupSwitchInsnNode) insn).keys.size();
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+}
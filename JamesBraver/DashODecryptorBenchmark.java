@@ -0,0 +1,179 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string.bench;
+
+import me.iris.ambien.obfuscator.transformers.impl.data.string.DashOStringEncryption;
+import obfuscator.transform.impl.data.DashO320StringEncryption;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runtime cost of the injected string decryptors against a plain {@code LDC}.
+ * <br>
+ * Every trial builds a host class holding the real decryptor bytecode (taken from
+ * {@link DashOStringEncryption#apply(ClassNode)} or {@link DashO320StringEncryption#createDecryptor(String)}),
+ * a {@code decrypt()} method that calls it exactly like a rewritten call site, and a {@code plain()} method
+ * that is just {@code LDC}. The host is loaded as a hidden class, so nothing but the decryptor is measured.
+ * The payload is random lowercase text, the decrypt cost does not depend on whether it round-trips.
+ *
+ * <p>Run with allocation profiling:
+ * <pre>
+ * java -jar benchmarks.jar DashODecryptorBenchmark -prof gc
+ * </pre>
+ *
+ * @author a114mc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DashODecryptorBenchmark implements Opcodes {
+
+    /**
+     * {@code a}..{@code e} are the DashO levels, {@code dashO320} the line 12..17 decryptor.
+     */
+    @Param({"a", "b", "c", "d", "e", "dashO320"})
+    public String decryptor;
+
+    @Param({"4", "64", "1024", "16384", "65535"})
+    public int length;
+
+    private MethodHandle decrypt;
+    private MethodHandle plain;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        String host = Type.getInternalName(DashODecryptorBenchmark.class).replace("DashODecryptorBenchmark", "DecryptorHost");
+        String payload = payload(length);
+
+        ClassNode classNode = new ClassNode();
+        classNode.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, host, null, "java/lang/Object", null);
+        // Encrypted input lives in a field, a 64K string encrypted by DashO320 no longer fits an LDC
+        classNode.fields.add(new FieldNode(ACC_STATIC, "payload", "Ljava/lang/String;", null, null));
+
+        MethodNode plainMethod = new MethodNode(ACC_STATIC, "plain", "()Ljava/lang/String;", null, null);
+        plainMethod.instructions.add(new LdcInsnNode(payload));
+        plainMethod.instructions.add(new InsnNode(ARETURN));
+
+        MethodNode decryptMethod = new MethodNode(ACC_STATIC, "decrypt", "()Ljava/lang/String;", null, null);
+        if (decryptor.equals("dashO320")) {
+            MethodNode method = DashO320StringEncryption.createDecryptor("decryptor");
+            classNode.methods.add(method);
+            decryptMethod.instructions.add(new FieldInsnNode(GETSTATIC, host, "payload", "Ljava/lang/String;"));
+            decryptMethod.instructions.add(new MethodInsnNode(INVOKESTATIC, host, method.name, method.desc, false));
+        } else {
+            MethodNode method = dashODecryptor(classNode, level(decryptor));
+            for (Type arg : Type.getArgumentTypes(method.desc)) {
+                if (arg.getSort() == Type.OBJECT) {
+                    decryptMethod.instructions.add(new FieldInsnNode(GETSTATIC, host, "payload", "Ljava/lang/String;"));
+                } else {
+                    decryptMethod.instructions.add(new IntInsnNode(SIPUSH, 0x3070));
+                }
+            }
+            decryptMethod.instructions.add(new MethodInsnNode(INVOKESTATIC, host, method.name, method.desc, false));
+        }
+        decryptMethod.instructions.add(new InsnNode(ARETURN));
+        classNode.methods.add(plainMethod);
+        classNode.methods.add(decryptMethod);
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classNode.accept(writer);
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+        lookup.findStaticSetter(lookup.lookupClass(), "payload", String.class).invokeExact(payload);
+
+        MethodType type = MethodType.methodType(String.class);
+        decrypt = lookup.findStatic(lookup.lookupClass(), "decrypt", type);
+        plain = lookup.findStatic(lookup.lookupClass(), "plain", type);
+    }
+
+    @Benchmark
+    public String baseline() throws Throwable {
+        return (String) plain.invokeExact();
+    }
+
+    @Benchmark
+    public String decrypt() throws Throwable {
+        return (String) decrypt.invokeExact();
+    }
+
+    /**
+     * Lets the engine inject its decryptor into {@code classNode} by giving it one string to encrypt, then
+     * drops the probe method again.
+     */
+    private static MethodNode dashODecryptor(ClassNode classNode, int level) {
+        MethodNode probe = new MethodNode(ACC_STATIC, "probe", "()Ljava/lang/String;", null, null);
+        probe.instructions.add(new LdcInsnNode("probe string"));
+        probe.instructions.add(new InsnNode(ARETURN));
+        classNode.methods.add(probe);
+
+        DashOStringEncryption.Config config = DashOStringEncryption.Config.builder()
+                .level(level)
+                .dictionaryNames(true)
+                .build();
+        new DashOStringEncryption(config).apply(classNode);
+        classNode.methods.remove(probe);
+
+        for (MethodNode method : classNode.methods) {
+            if (method.desc.equals(config.getDescriptor())) {
+                return method;
+            }
+        }
+        throw new IllegalStateException("No decryptor injected for level " + level);
+    }
+
+    private static int level(String name) {
+        switch (name) {
+            case "a":
+                return 1;
+            case "b":
+                return 2;
+            case "c":
+                return 4;
+            case "d":
+                return 7;
+            case "e":
+                return 10;
+            default:
+                throw new IllegalArgumentException("Unknown DashO level: " + name);
+        }
+    }
+
+    /**
+     * Lowercase ASCII only, so even 65535 chars fit one {@code LDC} for the baseline.
+     */
+    private static String payload(int length) {
+        SplittableRandom random = new SplittableRandom(length);
+        char[] chars = new char[length];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,304 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedObject;
+import jdk.jfr.consumer.RecordingFile;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Checks in a fresh JVM that C2 inlines the injected decryptors into their call sites.
+ * <br>
+ * For every XOR level, with and without {@link DashOStringEncryption.Config#isCompact()}, a {@link Supplier}
+ * appending {@code strings} literals is encrypted through {@link DashOStringEncryption#apply(ClassNode)} and called
+ * {@code iterations} times by {@link Driver}, which stays plain. The JVM runs with {@code -XX:-TieredCompilation},
+ * {@code -Xbatch} and only {@code get()} compilable, and records {@code jdk.CompilerInlining}. So every decision is
+ * C2's, about the decryptor's own shape and the inlining budget of one method with many strings, and not about
+ * which method happened to be compiled first: a decryptor already compiled on its own into more than
+ * {@code -XX:InlineSmallCode} bytes of machine code is not inlined anywhere after.
+ * <br>
+ * Each method of the decryptor is reported with the call sites inlined out of those considered, and the reason
+ * of the first refusal, for example {@code size > DesiredMethodLimit}, or else {@code inline (hot)}.
+ *
+ * <pre>
+ * java ... DashOInliningCheck [strings] [iterations] [-- jvm options]
+ * </pre>
+ * Exits with status 1 if a call site of a compact decryptor or its loop was not inlined, so a build can run it as
+ * a check.
+ *
+ * @author a114mc
+ */
+public final class DashOInliningCheck implements Opcodes {
+
+    private static final String SAMPLE = "inlining/Sample";
+    private static final String LITERAL = "The quick brown fox jumps over the lazy dog ";
+    private static final String DRIVER = Type.getInternalName(Driver.class);
+    /**
+     * JFR settings with nothing but inlining decisions.
+     */
+    private static final String JFC = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<configuration version=\"2.0\">\n"
+            + "  <event name=\"jdk.CompilerInlining\">\n"
+            + "    <setting name=\"enabled\">true</setting>\n"
+            + "  </event>\n"
+            + "</configuration>\n";
+
+    private final int strings;
+    private final int iterations;
+    private final List<String> jvmOptions;
+    private final Path workDir;
+
+    private DashOInliningCheck(int strings, int iterations, List<String> jvmOptions) throws IOException {
+        this.strings = strings;
+        this.iterations = iterations;
+        this.jvmOptions = jvmOptions;
+        this.workDir = Files.createTempDirectory("dasho-inlining");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int split = Arrays.asList(args).indexOf("--");
+        String[] own = split == -1 ? args : Arrays.copyOf(args, split);
+        List<String> jvmOptions = split == -1 ? new ArrayList<>()
+                : new ArrayList<>(Arrays.asList(args).subList(split + 1, args.length));
+        int strings = own.length > 0 ? Integer.parseInt(own[0]) : 32;
+        int iterations = own.length > 1 ? Integer.parseInt(own[1]) : 20_000;
+
+        DashOInliningCheck check = new DashOInliningCheck(strings, iterations, jvmOptions);
+        System.out.println("variant\tmethod\tinlined\tmessage");
+        boolean passed = true;
+        for (int level : new int[]{1, 2, 4, 10}) {
+            check.variant(level, false);
+            passed &= check.variant(level, true);
+        }
+        if (!passed) {
+            System.out.println("FAIL: a compact decryptor was not inlined");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return whether every call site of every method of the decryptor was inlined
+     */
+    private boolean variant(int level, boolean compact) throws Exception {
+        String name = "dashO-" + level + (compact ? "-compact" : "");
+        DashOStringEncryption engine = new DashOStringEncryption(DashOStringEncryption.Config.builder()
+                .level(level)
+                .compact(compact)
+                .build());
+        ClassNode classNode = sample();
+        int original = classNode.methods.size();
+        engine.apply(classNode);
+        // Everything apply added, the decryptor and any overload of it
+        List<String> decryptor = new ArrayList<>();
+        for (MethodNode method : classNode.methods.subList(original, classNode.methods.size())) {
+            decryptor.add(method.name + method.desc);
+        }
+
+        Path jar = workDir.resolve(name + ".jar");
+        writeJar(jar, classNode);
+        Path recording = workDir.resolve(name + ".jfr");
+        String failure = launch(jar, recording);
+        if (failure != null) {
+            System.out.println(name + "\tfailed: " + failure);
+            return false;
+        }
+
+        Map<String, Decisions> decisions = decisions(recording);
+        boolean inlined = !decryptor.isEmpty();
+        for (String method : decryptor) {
+            Decisions decision = decisions.get(method);
+            if (decision == null) {
+                inlined = false;
+                System.out.println(name + "\t" + method + "\t0/0\tnot compiled");
+                continue;
+            }
+            inlined &= decision.refused == null;
+            System.out.println(name + "\t" + method + "\t" + decision.inlined + "/" + decision.sites + "\t"
+                    + (decision.refused != null ? decision.refused : decision.message));
+        }
+        return inlined;
+    }
+
+    /**
+     * {@code public final class Sample implements Supplier}, whose {@code get()} appends {@code strings} distinct
+     * literals and returns the result.
+     */
+    private ClassNode sample() {
+        ClassNode classNode = new ClassNode();
+        classNode.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, SAMPLE, null, "java/lang/Object",
+                new String[]{"java/util/function/Supplier"});
+
+        MethodVisitor init = classNode.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor get = classNode.visitMethod(ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        get.visitCode();
+        get.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        get.visitInsn(DUP);
+        get.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        for (int i = 0; i < strings; i++) {
+            get.visitLdcInsn(LITERAL + i);
+            get.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                    "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        }
+        get.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        get.visitInsn(ARETURN);
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+        classNode.visitEnd();
+        return classNode;
+    }
+
+    private static void writeJar(Path jar, ClassNode classNode) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out)) {
+            jarOut.putNextEntry(new JarEntry(DRIVER + ".class"));
+            jarOut.write(driverClassFile());
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+                @Override
+                protected String getCommonSuperClass(String type1, String type2) {
+                    try {
+                        return super.getCommonSuperClass(type1, type2);
+                    } catch (RuntimeException e) {
+                        return "java/lang/Object";
+                    }
+                }
+            };
+            classNode.accept(writer);
+            jarOut.putNextEntry(new JarEntry(classNode.name + ".class"));
+            jarOut.write(writer.toByteArray());
+        }
+    }
+
+    private static byte[] driverClassFile() throws IOException {
+        try (InputStream in = DashOInliningCheck.class.getResourceAsStream("/" + DRIVER + ".class")) {
+            if (in == null) {
+                throw new IllegalStateException("Driver class file not found: " + DRIVER);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Runs the driver in a fresh JVM recording to {@code recording}.
+     *
+     * @return {@code null}, or why the run failed
+     */
+    private String launch(Path jar, Path recording) throws IOException, InterruptedException {
+        Path settings = workDir.resolve("inlining.jfc");
+        Files.write(settings, JFC.getBytes(StandardCharsets.UTF_8));
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:-TieredCompilation");
+        command.add("-Xbatch");
+        command.add("-XX:CompileCommand=quiet");
+        command.add("-XX:CompileCommand=compileonly," + SAMPLE.replace('/', '.') + "::get");
+        command.addAll(jvmOptions);
+        command.add("-XX:StartFlightRecording=filename=" + recording + ",settings=" + settings);
+        command.add("-cp");
+        command.add(jar.toString());
+        command.add(DRIVER.replace('/', '.'));
+        command.add(SAMPLE.replace('/', '.'));
+        command.add(Integer.toString(iterations));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                last = line;
+            }
+        }
+        int exit = process.waitFor();
+        return exit == 0 ? null : "exit " + exit + ", " + (last == null ? "no output" : last);
+    }
+
+    /**
+     * @return inlining decisions by {@code name + descriptor} of the sample method considered
+     */
+    private static Map<String, Decisions> decisions(Path recording) throws IOException {
+        Map<String, Decisions> decisions = new LinkedHashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+            if (!event.getEventType().getName().equals("jdk.CompilerInlining")) {
+                continue;
+            }
+            RecordedObject callee = event.getValue("callee");
+            if (callee == null || !SAMPLE.equals(callee.getString("type"))) {
+                continue;
+            }
+            Decisions decision = decisions.computeIfAbsent(
+                    callee.getString("name") + callee.getString("descriptor"), key -> new Decisions());
+            String message = event.getString("message");
+            decision.sites++;
+            if (event.getBoolean("succeeded")) {
+                decision.inlined++;
+                decision.message = message;
+            } else if (decision.refused == null) {
+                decision.refused = message;
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * C2's decisions about one method, over every compilation of {@code get()}.
+     */
+    private static final class Decisions {
+        private int sites;
+        private int inlined;
+        private String message;
+        private String refused;
+    }
+
+    /**
+     * Main class of the check, copied into every jar as is: calls {@code get()} of the sample class
+     * {@code iterations} times. Touches nothing of the check, which is not in the jar.
+     */
+    public static final class Driver {
+
+        private Driver() {
+        }
+
+        public static void main(String[] args) throws Exception {
+            Supplier<?> sample = (Supplier<?>) Class.forName(args[0]).getDeclaredConstructor().newInstance();
+            int iterations = Integer.parseInt(args[1]);
+            int sink = 0;
+            for (int i = 0; i < iterations; i++) {
+                sink += sample.get().hashCode();
+            }
+            System.out.println("sink " + sink);
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one {@link DashOStringEncryption} run did per class: wall time, strings encrypted, skipped methods and
+ * what the class grew by. Collected only when the engine's {@link DashOStringEncryption.Config} carries an
+ * instance, then exported with {@link #writeJson(Writer)} and, while a recording is running, as the
+ * {@code me.iris.ambien.DashOClass} and {@code me.iris.ambien.DashOSkip} JFR events.
+ *
+ * <p>Growth is measured on the class tree before and after the pass. Code bytes add up instruction sizes the way
+ * {@code ClassWriter} would emit them, without {@code LDC_W}/wide promotions or switch padding. Constant pool bytes
+ * compare the distinct entries the class references, attribute names and stack map types aside. Both are close
+ * estimates, exact enough to rank packages. Measuring needs the tree, so with metrics on
+ * {@link DashOVisitorEngine} takes its tree path.
+ *
+ * @author a114mc
+ */
+public final class DashOMetrics {
+
+    /**
+     * Why {@link DashOStringEncryption} left a method alone.
+     */
+    public enum SkipReason {
+        /**
+         * An injected decryptor, this run's or Allatori's.
+         */
+        DECRYPTOR,
+        /**
+         * Abstract, native, or otherwise without code worth touching.
+         */
+        SPECIAL,
+        /**
+         * The method already fills 64K by the {@link DashOCodeBudget} count, no rewrite fits.
+         */
+        OVERFLOW
+    }
+
+    private final Queue<ClassMetrics> classes = new ConcurrentLinkedQueue<>();
+    private final LongAdder sharedDecryptors = new LongAdder();
+
+    /**
+     * Starts measuring {@code classNode}, before any of its methods is touched.
+     */
+    ClassMetrics begin(ClassNode classNode) {
+        ClassMetrics metrics = new ClassMetrics(classNode.name, 1);
+        metrics.event.begin();
+        metrics.start = System.nanoTime();
+        metrics.codeBytes = -codeBytes(classNode);
+        metrics.poolBytes = -poolBytes(classNode);
+        metrics.decryptors = -injectable(classNode);
+        return metrics;
+    }
+
+    void skipped(ClassMetrics metrics, MethodNode method, SkipReason reason) {
+        Integer count = metrics.skipped.get(reason);
+        metrics.skipped.put(reason, count == null ? 1 : count + 1);
+
+        SkipEvent event = new SkipEvent();
+        if (event.shouldCommit()) {
+            event.className = metrics.name;
+            event.method = method.name + method.desc;
+            event.reason = reason.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Closes the measurement of a class once the engine injected everything it needs.
+     */
+    void end(ClassMetrics metrics, ClassNode classNode, int ldcStrings, int indyStrings) {
+        metrics.nanos = System.nanoTime() - metrics.start;
+        metrics.ldcStrings = ldcStrings;
+        metrics.indyStrings = indyStrings;
+        metrics.codeBytes += codeBytes(classNode);
+        metrics.poolBytes += poolBytes(classNode);
+        metrics.decryptors += injectable(classNode);
+        classes.add(metrics);
+
+        ClassEvent event = metrics.event;
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = metrics.name;
+            event.ldcStrings = ldcStrings;
+            event.indyStrings = indyStrings;
+            event.skippedMethods = metrics.getSkippedMethods();
+            event.codeBytes = metrics.codeBytes;
+            event.poolBytes = metrics.poolBytes;
+            event.decryptors = metrics.decryptors;
+            event.commit();
+        }
+    }
+
+    void sharedDecryptorCreated() {
+        sharedDecryptors.increment();
+    }
+
+    /**
+     * @return classes measured so far, in completion order
+     */
+    public List<ClassMetrics> getClasses() {
+        return new ArrayList<>(classes);
+    }
+
+    /**
+     * @return the classes summed per package (internal name, {@code ""} for the default one), sorted by name
+     */
+    public Map<String, ClassMetrics> getPackages() {
+        Map<String, ClassMetrics> packages = new TreeMap<>();
+        for (ClassMetrics metrics : classes) {
+            int slash = metrics.name.lastIndexOf('/');
+            String name = slash == -1 ? "" : metrics.name.substring(0, slash);
+            ClassMetrics sum = packages.get(name);
+            if (sum == null) {
+                sum = new ClassMetrics(name, 0);
+                packages.put(name, sum);
+            }
+            sum.add(metrics);
+        }
+        return packages;
+    }
+
+    /**
+     * @return holder classes created for {@link DashOStringEncryption.SharedScope}, their decryptors are not
+     * counted against any class
+     */
+    public long getSharedDecryptors() {
+        return sharedDecryptors.sum();
+    }
+
+    /**
+     * Writes {@code {"sharedDecryptors": n, "totals": {...}, "packages": [...], "classes": [...]}}, every object
+     * shaped like {@link ClassMetrics}, the totals named {@code ""}.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        List<ClassMetrics> snapshot = getClasses();
+        ClassMetrics totals = new ClassMetrics("", 0);
+        for (ClassMetrics metrics : snapshot) {
+            totals.add(metrics);
+        }
+        writer.write("{\n  \"sharedDecryptors\": " + getSharedDecryptors() + ",\n  \"totals\": ");
+        totals.writeJson(writer);
+        writer.write(",\n  \"packages\": [");
+        writeJson(writer, getPackages().values());
+        writer.write("],\n  \"classes\": [");
+        writeJson(writer, snapshot);
+        writer.write("]\n}\n");
+        writer.flush();
+    }
+
+    private static void writeJson(Writer writer, Collection<ClassMetrics> list) throws IOException {
+        String separator = "\n    ";
+        for (ClassMetrics metrics : list) {
+            writer.write(separator);
+            metrics.writeJson(writer);
+            separator = ",\n    ";
+        }
+        if (!list.isEmpty()) {
+            writer.write("\n  ");
+        }
+    }
+
+    /**
+     * Figures of one class, or the sum over a package.
+     */
+    public static final class ClassMetrics {
+        private final String name;
+        private final Map<SkipReason, Integer> skipped = new EnumMap<>(SkipReason.class);
+        private final ClassEvent event = new ClassEvent();
+        private long start;
+        private long nanos;
+        private int ldcStrings;
+        private int indyStrings;
+        private long codeBytes;
+        private long poolBytes;
+        private int decryptors;
+        private int classes;
+
+        private ClassMetrics(String name, int classes) {
+            this.name = name;
+            this.classes = classes;
+        }
+
+        /**
+         * @return internal name of the class or package
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return classes summed up here, {@code 1} for a single class
+         */
+        public int getClasses() {
+            return classes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return string constants ({@code LDC}) encrypted
+         */
+        public int getLdcStrings() {
+            return ldcStrings;
+        }
+
+        /**
+         * @return constant parts of {@code makeConcatWithConstants} recipes encrypted
+         */
+        public int getIndyStrings() {
+            return indyStrings;
+        }
+
+        public Map<SkipReason, Integer> getSkipped() {
+            return Collections.unmodifiableMap(skipped);
+        }
+
+        public int getSkippedMethods() {
+            int sum = 0;
+            for (int count : skipped.values()) {
+                sum += count;
+            }
+            return sum;
+        }
+
+        public long getCodeBytes() {
+            return codeBytes;
+        }
+
+        public long getPoolBytes() {
+            return poolBytes;
+        }
+
+        /**
+         * @return methods injected into the class: decryptors, their cached and bootstrap overloads
+         */
+        public int getDecryptors() {
+            return decryptors;
+        }
+
+        private void add(ClassMetrics other) {
+            classes += other.classes;
+            nanos += other.nanos;
+            ldcStrings += other.ldcStrings;
+            indyStrings += other.indyStrings;
+            codeBytes += other.codeBytes;
+            poolBytes += other.poolBytes;
+            decryptors += other.decryptors;
+            for (Map.Entry<SkipReason, Integer> entry : other.skipped.entrySet()) {
+                Integer count = skipped.get(entry.getKey());
+                skipped.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+            }
+        }
+
+        private void writeJson(Writer writer) throws IOException {
+            StringBuilder json = new StringBuilder("{\"name\": ");
+            quote(json, name);
+            json.append(", \"classes\": ").append(classes)
+                    .append(", \"nanos\": ").append(nanos)
+                    .append(", \"ldcStrings\": ").append(ldcStrings)
+                    .append(", \"indyStrings\": ").append(indyStrings)
+                    .append(", \"skipped\": {");
+            String separator = "";
+            for (Map.Entry<SkipReason, Integer> entry : skipped.entrySet()) {
+                json.append(separator).append('"').append(entry.getKey().name()).append("\": ").append(entry.getValue());
+                separator = ", ";
+            }
+            json.append("}, \"codeBytes\": ").append(codeBytes)
+                    .append(", \"poolBytes\": ").append(poolBytes)
+                    .append(", \"decryptors\": ").append(decryptors)
+                    .append('}');
+            writer.write(json.toString());
+        }
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                json.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                json.append(String.format("\\u%04x", (int) ch));
+            } else {
+                json.append(ch);
+            }
+        }
+        json.append('"');
+    }
+
+    private static int injectable(ClassNode classNode) {
+        int count = 0;
+        for (MethodNode method : classNode.methods) {
+            if (!method.name.equals("<clinit>")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long codeBytes(ClassNode classNode) {
+        long bytes = 0;
+        for (MethodNode method : classNode.methods) {
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                bytes += insnSize(insn);
+            }
+        }
+        return bytes;
+    }
+
+    private static int insnSize(AbstractInsnNode insn) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.LABEL:
+            case AbstractInsnNode.LINE:
+            case AbstractInsnNode.FRAME:
+                return 0;
+            case AbstractInsnNode.INT_INSN:
+                return insn.getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN: {
+                int var = ((VarInsnNode) insn).var;
+                return var > 255 ? 4 : var < 4 && insn.getOpcode() != Opcodes.RET ? 1 : 2;
+            }
+            case AbstractInsnNode.TYPE_INSN:
+            case AbstractInsnNode.FIELD_INSN:
+            case AbstractInsnNode.JUMP_INSN:
+                return 3;
+            case AbstractInsnNode.METHOD_INSN:
+                return insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return 5;
+            case AbstractInsnNode.LDC_INSN: {
+                Object cst = ((LdcInsnNode) insn).cst;
+                return cst instanceof Long || cst instanceof Double ? 3 : 2;
+            }
+            case AbstractInsnNode.IINC_INSN: {
+                IincInsnNode iinc = (IincInsnNode) insn;
+                return iinc.var > 255 || iinc.incr != (byte) iinc.incr ? 6 : 3;
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                return 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                return 12 + 8 * ((LookupSwitchInsnNode) insn).keys.size();
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private static long poolBytes(ClassNode classNode) {
+        Pool pool = new Pool();
+        pool.type(classNode.name);
+        pool.type(classNode.superName);
+        for (String itf : classNode.interfaces) {
+            pool.type(itf);
+        }
+        for (FieldNode field : classNode.fields) {
+            pool.utf8(field.name);
+            pool.utf8(field.desc);
+            if (field.value != null) {
+                pool.constant(field.value);
+            }
+        }
+        for (MethodNode method : classNode.methods) {
+            pool.utf8(method.name);
+            pool.utf8(method.desc);
+            if (method.exceptions != null) {
+                for (String exception : method.exceptions) {
+                    pool.type(exception);
+                }
+            }
+            for (TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
+                pool.type(tryCatch.type);
+            }
+            if (method.localVariables != null) {
+                for (LocalVariableNode local : method.localVariables) {
+                    pool.utf8(local.name);
+                    pool.utf8(local.desc);
+                }
+            }
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn instanceof LdcInsnNode) {
+                    pool.constant(((LdcInsnNode) insn).cst);
+                } else if (insn instanceof FieldInsnNode) {
+                    FieldInsnNode field = (FieldInsnNode) insn;
+                    pool.member('F', field.owner, field.name, field.desc);
+                } else if (insn instanceof MethodInsnNode) {
+                    MethodInsnNode call = (MethodInsnNode) insn;
+                    pool.member(call.itf ? 'I' : 'M', call.owner, call.name, call.desc);
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                    pool.dynamic('Y', indy.name, indy.desc, indy.bsm, indy.bsmArgs);
+                } else if (insn instanceof TypeInsnNode) {
+                    pool.type(((TypeInsnNode) insn).desc);
+                } else if (insn instanceof MultiANewArrayInsnNode) {
+                    pool.type(((MultiANewArrayInsnNode) insn).desc);
+                }
+            }
+        }
+        return pool.bytes;
+    }
+
+    /**
+     * Distinct constant pool entries and their size in the class file.
+     */
+    private static final class Pool {
+        private final Set<String> entries = new HashSet<>();
+        private long bytes;
+
+        private boolean add(char tag, String key, int size) {
+            if (entries.add(tag + key)) {
+                bytes += size;
+                return true;
+            }
+            return false;
+        }
+
+        void utf8(String value) {
+            if (value != null) {
+                add('U', value, 3 + utf8Length(value));
+            }
+        }
+
+        void type(String internalName) {
+            if (internalName != null && add('C', internalName, 3)) {
+                utf8(internalName);
+            }
+        }
+
+        void member(char tag, String owner, String name, String desc) {
+            if (add(tag, owner + '.' + name + desc, 5)) {
+                type(owner);
+                if (add('N', name + ' ' + desc, 5)) {
+                    utf8(name);
+                    utf8(desc);
+                }
+            }
+        }
+
+        void dynamic(char tag, String name, String desc, Handle bsm, Object[] args) {
+            if (add('N', name + ' ' + desc, 5)) {
+                utf8(name);
+                utf8(desc);
+            }
+            add(tag, name + desc + bsm, 5);
+            constant(bsm);
+            for (Object arg : args) {
+                constant(arg);
+            }
+        }
+
+        void constant(Object value) {
+            if (value instanceof String) {
+                if (add('S', (String) value, 3)) {
+                    utf8((String) value);
+                }
+            } else if (value instanceof Integer || value instanceof Float) {
+                add(value instanceof Integer ? 'i' : 'f', value.toString(), 5);
+            } else if (value instanceof Long || value instanceof Double) {
+                add(value instanceof Long ? 'l' : 'd', value.toString(), 9);
+            } else if (value instanceof Type) {
+                Type type = (Type) value;
+                if (type.getSort() == Type.METHOD) {
+                    if (add('T', type.getDescriptor(), 3)) {
+                        utf8(type.getDescriptor());
+                    }
+                } else {
+                    type(type.getSort() == Type.OBJECT ? type.getInternalName() : type.getDescriptor());
+                }
+            } else if (value instanceof Handle) {
+                Handle handle = (Handle) value;
+                if (add('H', handle.toString(), 4)) {
+                    char tag = handle.getTag() <= Opcodes.H_PUTSTATIC ? 'F' : handle.isInterface() ? 'I' : 'M';
+                    member(tag, handle.getOwner(), handle.getName(), handle.getDesc());
+                }
+            } else if (value instanceof ConstantDynamic) {
+                ConstantDynamic condy = (ConstantDynamic) value;
+                Object[] args = new Object[condy.getBootstrapMethodArgumentCount()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = condy.getBootstrapMethodArgument(i);
+                }
+                dynamic('Q', condy.getName(), condy.getDescriptor(), condy.getBootstrapMethod(), args);
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                length += ch >= 0x01 && ch <= 0x7F ? 1 : ch <= 0x7FF ? 2 : 3;
+            }
+            return length;
+        }
+    }
+
+    @Name("me.iris.ambien.DashOClass")
+    @Label("DashO String Encryption")
+    @Category({"Ambien", "String Encryption"})
+    @Description("One class through DashOStringEncryption")
+    @StackTrace(false)
+    static final class ClassEvent extends Event {
+        @Label("Class")
+        String className;
+        @Label("LDC Strings")
+        int ldcStrings;
+        @Label("Concat Strings")
+        int indyStrings;
+        @Label("Skipped Methods")
+        int skippedMethods;
+        @Label("Code Added")
+        @DataAmount
+        long codeBytes;
+        @Label("Constant Pool Added")
+        @DataAmount
+        long poolBytes;
+        @Label("Injected Methods")
+        int decryptors;
+    }
+
+    @Name("me.iris.ambien.DashOSkip")
+    @Label("DashO Skipped Method")
+    @Category({"Ambien", "String Encryption"})
+    @StackTrace(false)
+    static final class SkipEvent extends Event {
+        @Label("Class")
+        String className;
+        @Label("Method")
+        String method;
+        @Label("Reason")
+        String reason;
+    }
+}
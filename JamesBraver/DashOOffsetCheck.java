@@ -0,0 +1,116 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a {@link HotnessProfile} tells apart the statements of one method.
+ * <br>
+ * A method of two statements, each loading a literal, is written to a class file and read back through
+ * {@link BytecodeOffsets#read(byte[], int)}. A profile counting only the offset of the first statement must make
+ * its literal hot and leave the second one cold; the same profile against a tree of a plain {@link ClassReader},
+ * which has no offsets, is reported for comparison.
+ *
+ * <pre>
+ * java ... DashOOffsetCheck
+ * </pre>
+ * Exits with status 1 if both literals are classified the same, so a build can run it as a check.
+ *
+ * @author a114mc
+ */
+public final class DashOOffsetCheck implements Opcodes {
+
+    private static final String SAMPLE = "offsets/Sample";
+    private static final long THRESHOLD = 100;
+
+    private DashOOffsetCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] classFile = sample();
+
+        MethodNode method = method(BytecodeOffsets.read(classFile, ClassReader.EXPAND_FRAMES));
+        List<LdcInsnNode> literals = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int offset = -1;
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LabelNode && BytecodeOffsets.offset((LabelNode) insn) >= 0) {
+                offset = BytecodeOffsets.offset((LabelNode) insn);
+            } else if (insn instanceof LdcInsnNode) {
+                literals.add((LdcInsnNode) insn);
+                offsets.add(offset);
+            }
+        }
+        System.out.println("literal offsets " + offsets);
+
+        Path file = Files.createTempFile("dasho-offsets", ".txt");
+        Files.write(file, Collections.singletonList(SAMPLE + "#get()Ljava/lang/String;:" + offsets.get(0) + " -> " + THRESHOLD),
+                StandardCharsets.UTF_8);
+        HotnessProfile profile = HotnessProfile.fromFile(file);
+
+        Set<AbstractInsnNode> hot = profile.hotInstructions(SAMPLE, method, THRESHOLD);
+        boolean first = hot.contains(literals.get(0));
+        boolean second = hot.contains(literals.get(1));
+        System.out.println("offsets kept\tfirst " + (first ? "hot" : "cold") + "\tsecond " + (second ? "hot" : "cold"));
+
+        ClassNode plain = new ClassNode();
+        new ClassReader(classFile).accept(plain, ClassReader.EXPAND_FRAMES);
+        Set<AbstractInsnNode> plainHot = profile.hotInstructions(SAMPLE, method(plain), THRESHOLD);
+        System.out.println("plain reader\t" + plainHot.size() + " of 2 hot, one region for the whole method");
+
+        if (offsets.get(0).equals(offsets.get(1)) || !first || second) {
+            System.out.println("FAIL: the two statements were not classified apart");
+            System.exit(1);
+        }
+    }
+
+    private static MethodNode method(ClassNode classNode) {
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals("get")) {
+                return method;
+            }
+        }
+        throw new IllegalStateException("get() not found in " + classNode.name);
+    }
+
+    /**
+     * {@code public final class Sample}, whose static {@code get()} loads a literal on line 1, another on line 2,
+     * and returns the second.
+     */
+    private static byte[] sample() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, SAMPLE, null, "java/lang/Object", null);
+        MethodVisitor get = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "get", "()Ljava/lang/String;", null, null);
+        get.visitCode();
+        for (int line = 1; line <= 2; line++) {
+            Label statement = new Label();
+            get.visitLabel(statement);
+            get.visitLineNumber(line, statement);
+            get.visitLdcInsn("statement " + line);
+            get.visitVarInsn(ASTORE, 0);
+        }
+        get.visitVarInsn(ALOAD, 0);
+        get.visitInsn(ARETURN);
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,400 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import jdk.jfr.consumer.RecordedClassLoader;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import obfuscator.transform.impl.data.DashO320StringEncryption;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Cold start cost of the injected decryptors, measured in fresh JVMs.
+ * <br>
+ * A sample application of {@code classes} classes, each a {@link Supplier} appending {@code strings} literals, is
+ * written to a jar untransformed (the baseline), once per DashO level through
+ * {@link DashOStringEncryption#apply(ClassNode)} and once through {@link DashO320StringEncryption}. Its main class,
+ * {@link Probe}, stays plain in every jar: it notes the wall clock on entry, then loads, instantiates and calls each
+ * sample class twice, timing every step with {@code System.nanoTime()}.
+ *
+ * <p>Every variant is launched {@code runs} times for the medians of:
+ * <ul>
+ *     <li>time to main: from {@code ProcessBuilder.start()} to the first line of {@code main}</li>
+ *     <li>init: {@code Class.forName} and constructor, so loading, linking and {@code <clinit>}</li>
+ *     <li>first and second call: the first runs the decryptor cold, in the interpreter</li>
+ * </ul>
+ * followed by one launch under {@code -Xlog:class+load,class+init} and JFR {@code jdk.ClassLoad}, which gives the
+ * number of application classes loaded, their summed load time and their summed verification time. Output is tab
+ * separated, all times in microseconds except time to main.
+ *
+ * <pre>
+ * java ... DashOStartupHarness [classes] [strings] [runs] [callSite] [-- jvm options]
+ * </pre>
+ * JVM options go to every launch, for example {@code -XX:SharedArchiveFile=app.jsa} to measure on top of AppCDS.
+ *
+ * @author a114mc
+ */
+public final class DashOStartupHarness implements Opcodes {
+
+    private static final String SAMPLE = "sample/S";
+    private static final String PROBE = Type.getInternalName(Probe.class);
+    /**
+     * JFR settings with nothing but class loading, so the recording itself stays cheap.
+     */
+    private static final String JFC = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<configuration version=\"2.0\">\n"
+            + "  <event name=\"jdk.ClassLoad\">\n"
+            + "    <setting name=\"enabled\">true</setting>\n"
+            + "    <setting name=\"stackTrace\">false</setting>\n"
+            + "    <setting name=\"threshold\">0 ms</setting>\n"
+            + "  </event>\n"
+            + "</configuration>\n";
+
+    private final int classes;
+    private final int strings;
+    private final int runs;
+    private final List<String> jvmOptions;
+    private final Path workDir;
+
+    private DashOStartupHarness(int classes, int strings, int runs, List<String> jvmOptions) throws IOException {
+        this.classes = classes;
+        this.strings = strings;
+        this.runs = runs;
+        this.jvmOptions = jvmOptions;
+        this.workDir = Files.createTempDirectory("dasho-startup");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int split = Arrays.asList(args).indexOf("--");
+        String[] own = split == -1 ? args : Arrays.copyOf(args, split);
+        List<String> jvmOptions = split == -1 ? new ArrayList<>()
+                : new ArrayList<>(Arrays.asList(args).subList(split + 1, args.length));
+        int classes = own.length > 0 ? Integer.parseInt(own[0]) : 200;
+        int strings = own.length > 1 ? Integer.parseInt(own[1]) : 20;
+        int runs = own.length > 2 ? Integer.parseInt(own[2]) : 5;
+        DashOStringEncryption.CallSite callSite = own.length > 3
+                ? DashOStringEncryption.CallSite.valueOf(own[3]) : DashOStringEncryption.CallSite.DIRECT;
+
+        DashOStartupHarness harness = new DashOStartupHarness(classes, strings, runs, jvmOptions);
+        System.out.println("variant\tjar KB\tmain ms\tinit us\tfirst call us\tsecond call us"
+                + "\tapp classes\tload us\tverify us");
+        harness.variant("baseline", classNode -> {
+        });
+        for (int level : new int[]{1, 2, 4, 7, 10}) {
+            DashOStringEncryption dashO = new DashOStringEncryption(DashOStringEncryption.Config.builder()
+                    .level(level)
+                    .callSite(callSite)
+                    .build());
+            harness.variant("dashO-" + level, dashO::apply);
+        }
+        DashO320StringEncryption dashO320 = new DashO320StringEncryption(null);
+        harness.variant("dashO320", classNode -> dashO320.transformClass(classNode, "d", method -> false));
+    }
+
+    private void variant(String name, Consumer<ClassNode> transform) throws Exception {
+        Path jar = workDir.resolve(name + ".jar");
+        try {
+            writeJar(jar, transform);
+        } catch (RuntimeException e) {
+            System.out.println(name + "\tfailed: " + e);
+            return;
+        }
+
+        long[][] samples = new long[4][runs];
+        for (int run = 0; run < runs; run++) {
+            Launch launch = launch(jar, null, null);
+            if (launch.failure != null) {
+                System.out.println(name + "\tfailed: " + launch.failure);
+                return;
+            }
+            samples[0][run] = launch.main;
+            samples[1][run] = launch.init;
+            samples[2][run] = launch.first;
+            samples[3][run] = launch.second;
+        }
+
+        Path log = workDir.resolve(name + ".log");
+        Path recording = workDir.resolve(name + ".jfr");
+        Launch diagnostics = launch(jar, log, recording);
+        if (diagnostics.failure != null) {
+            System.out.println(name + "\tfailed: " + diagnostics.failure);
+            return;
+        }
+        long[] classLog = parseLog(log);
+
+        System.out.printf(Locale.ROOT, "%s\t%.1f\t%.1f\t%.0f\t%.0f\t%.0f\t%d\t%.0f\t%.0f%n", name,
+                Files.size(jar) / 1024.0, median(samples[0]) / 1e6, median(samples[1]) / 1e3,
+                median(samples[2]) / 1e3, median(samples[3]) / 1e3, classLog[0], loadNanos(recording) / 1e3,
+                classLog[1] / 1e3);
+    }
+
+    /**
+     * The probe plus every sample class after {@code transform}.
+     */
+    private void writeJar(Path jar, Consumer<ClassNode> transform) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, PROBE.replace('/', '.'));
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            jarOut.putNextEntry(new JarEntry(PROBE + ".class"));
+            jarOut.write(probeClassFile());
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < classes; i++) {
+                ClassNode classNode = sample(SAMPLE + i, random);
+                transform.accept(classNode);
+                jarOut.putNextEntry(new JarEntry(classNode.name + ".class"));
+                jarOut.write(toBytes(classNode));
+            }
+        }
+    }
+
+    /**
+     * {@code public final class name implements Supplier}, whose {@code get()} appends {@code strings} distinct
+     * literals and returns the result.
+     */
+    private ClassNode sample(String name, SplittableRandom random) {
+        ClassNode classNode = new ClassNode();
+        classNode.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object",
+                new String[]{"java/util/function/Supplier"});
+
+        MethodVisitor init = classNode.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor get = classNode.visitMethod(ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        get.visitCode();
+        get.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        get.visitInsn(DUP);
+        get.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        for (int s = 0; s < strings; s++) {
+            get.visitLdcInsn(literal(random));
+            get.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                    "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        }
+        get.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        get.visitInsn(ARETURN);
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+        classNode.visitEnd();
+        return classNode;
+    }
+
+    private static String literal(SplittableRandom random) {
+        char[] chars = new char[random.nextInt(4, 48)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) random.nextInt(' ', '\u007f');
+        }
+        return new String(chars);
+    }
+
+    private static byte[] toBytes(ClassNode classNode) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                try {
+                    return super.getCommonSuperClass(type1, type2);
+                } catch (RuntimeException e) {
+                    return "java/lang/Object";
+                }
+            }
+        };
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static byte[] probeClassFile() throws IOException {
+        try (InputStream in = DashOStartupHarness.class.getResourceAsStream("/" + PROBE + ".class")) {
+            if (in == null) {
+                throw new IllegalStateException("Probe class file not found: " + PROBE);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Runs the probe in a fresh JVM, with class logging to {@code log} and a JFR recording to {@code recording}
+     * unless both are {@code null}.
+     */
+    private Launch launch(Path jar, Path log, Path recording) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        if (log != null) {
+            Path settings = workDir.resolve("classload.jfc");
+            Files.write(settings, JFC.getBytes(StandardCharsets.UTF_8));
+            command.add("-Xlog:class+load=info,class+init=info:file=" + log + ":uptimenanos");
+            command.add("-XX:StartFlightRecording=filename=" + recording + ",settings=" + settings);
+        }
+        command.add("-cp");
+        command.add(jar.toString());
+        command.add(PROBE.replace('/', '.'));
+        command.add(Integer.toString(classes));
+
+        Launch launch = new Launch();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long launched = epochNanos(Instant.now());
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                output.add(line);
+                String[] fields = line.split(" ");
+                if (fields.length == 2 && fields[0].equals("main")) {
+                    launch.main = Long.parseLong(fields[1]) - launched;
+                } else if (fields.length == 5 && fields[0].equals("sample")) {
+                    launch.init += Long.parseLong(fields[2]);
+                    launch.first += Long.parseLong(fields[3]);
+                    launch.second += Long.parseLong(fields[4]);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        if (exit != 0) {
+            launch.failure = "exit " + exit + ", " + (output.isEmpty() ? "no output" : output.get(output.size() - 1));
+        }
+        return launch;
+    }
+
+    /**
+     * @return {application classes loaded, nanoseconds spent verifying them} from an
+     * {@code -Xlog:class+load,class+init} file
+     */
+    private static long[] parseLog(Path log) throws IOException {
+        long loaded = 0;
+        long verifyNanos = 0;
+        Map<String, Long> verifying = new HashMap<>();
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            int end = line.indexOf("ns] ");
+            if (!line.startsWith("[") || end == -1) {
+                continue;
+            }
+            long uptime = Long.parseLong(line.substring(1, end));
+            String message = line.substring(end + 4);
+            if (message.contains(" source: file:") || message.contains(" source: jar:")) {
+                loaded++;
+            } else if (message.startsWith("Start class verification for: ")) {
+                verifying.put(message.substring("Start class verification for: ".length()), uptime);
+            } else if (message.startsWith("End class verification for: ")) {
+                Long start = verifying.remove(message.substring("End class verification for: ".length()));
+                if (start != null) {
+                    verifyNanos += uptime - start;
+                }
+            }
+        }
+        return new long[]{loaded, verifyNanos};
+    }
+
+    /**
+     * @return summed {@code jdk.ClassLoad} duration of classes defined by the application class loader
+     */
+    private static long loadNanos(Path recording) throws IOException {
+        long nanos = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+            if (!event.getEventType().getName().equals("jdk.ClassLoad")) {
+                continue;
+            }
+            RecordedClassLoader loader = event.getValue("definingClassLoader");
+            if (loader != null && "app".equals(loader.getName())) {
+                nanos += event.getDuration().toNanos();
+            }
+        }
+        return nanos;
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    /**
+     * Nanoseconds of one launch, summed over the sample classes.
+     */
+    private static final class Launch {
+        private long main;
+        private long init;
+        private long first;
+        private long second;
+        private String failure;
+    }
+
+    /**
+     * Main class of the sample application, copied into every jar as is. Prints {@code main <epoch nanos>} on
+     * entry, then {@code sample <i> <init> <first call> <second call>} in nanoseconds per sample class. Builds its
+     * output with {@link StringBuilder} so no concatenation bootstrap runs while it measures, and touches nothing
+     * of the harness, which is not in the jar.
+     */
+    public static final class Probe {
+
+        private Probe() {
+        }
+
+        public static void main(String[] args) throws Exception {
+            Instant entered = Instant.now();
+            int count = Integer.parseInt(args[0]);
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = new StringBuilder(SAMPLE.replace('/', '.')).append(i).toString();
+            }
+            StringBuilder out = new StringBuilder("main ")
+                    .append(entered.getEpochSecond() * 1_000_000_000L + entered.getNano()).append('\n');
+            int sink = 0;
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                Supplier<?> sample = (Supplier<?>) Class.forName(names[i]).getDeclaredConstructor().newInstance();
+                long initialized = System.nanoTime();
+                sink += sample.get().hashCode();
+                long first = System.nanoTime();
+                sink += sample.get().hashCode();
+                long second = System.nanoTime();
+                out.append("sample ").append(i)
+                        .append(' ').append(initialized - start)
+                        .append(' ').append(first - initialized)
+                        .append(' ').append(second - first).append('\n');
+            }
+            out.append("sink ").append(sink);
+            System.out.println(out);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package me.iris.ambien.obfuscator.transformers.impl.data.string;
 
 import cn.a114.commonutil.random.ThreadLocalRandomManager;
 import me.iris.ambien.obfuscator.Ambien;
-import me.iris.ambien.obfuscator.asm.SizeEvaluator;
 import me.iris.ambien.obfuscator.builders.MethodBuilder;
 import me.iris.ambien.obfuscator.transformers.impl.data.StringEncryptionManager;
 import me.iris.ambien.obfuscator.utilities.GOTOASMUtils;
@@ -10,15 +9,36 @@ import me.iris.ambien.obfuscator.utilities.MathUtil;
 import me.iris.ambien.obfuscator.utilities.kek.DescriptorGenerator;
 import me.iris.ambien.obfuscator.utilities.kek.myj2c.Myj2cASMUtils;
 import me.iris.ambien.obfuscator.utilities.string.StringUtil;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implements an advanced string encryption transformer using various "DashO"-style obfuscation techniques.
@@ -37,6 +57,10 @@ import org.objectweb.asm.tree.MethodNode;
  * </ul>
  *
  * <p>This transformer is part of Ambien's string encryption obfuscation pipeline.
+ * <br>
+ * An instance only holds an immutable {@link Config}; everything that belongs to one class lives in a
+ * {@link ClassState} created per {@link #apply(ClassNode)} call, so one engine can be shared by many worker
+ * threads as long as each class is handled by a single thread.
  *
  * @author a114mc
  */
@@ -68,134 +92,767 @@ public class DashOStringEncryption implements Opcodes {
                     .build()
                     .toString();    // int int String -> String
 
+    private static final String VAR_HANDLE = "java/lang/invoke/VarHandle";
+    /**
+     * Leading parameters every constant bootstrap method receives.
+     */
+    private static final String BOOTSTRAP_PREFIX = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;";
+    /**
+     * Upper bound of constants decrypted by one eager {@code <clinit>}, each costs up to 15 bytes there. The rest,
+     * and those an existing initializer has no room left for, stay {@link CallSite#DIRECT}.
+     */
+    private static final int MAX_EAGER_CONSTANTS = 2048;
+    /**
+     * Constant pool UTF8 entries are limited to 65535 bytes of modified UTF-8.
+     */
+    private static final int MAX_BLOB_BYTES = 65535;
+    /**
+     * {@code <clinit>} code around an {@link CallSite#EAGER} or {@link CallSite#PACKED} fill: the table length,
+     * {@code ANEWARRAY} and {@code PUTSTATIC}.
+     */
+    private static final int TABLE_BYTES = 9;
+    /**
+     * Upper bound of the {@code <clinit>} code decrypting one {@link CallSite#PACKED} blob: {@code DUP}, the index,
+     * the decryptor arguments, the call and {@code AASTORE}.
+     */
+    private static final int BLOB_FILL_BYTES = 17;
+    /**
+     * The XOR levels mask every key with {@link #jamesBraverIsStupid}, which keeps bits below 128 only, so their
+     * keystream repeats every 128 chars.
+     */
+    private static final int KEYSTREAM_PERIOD = 128;
+    private static final boolean VECTOR_ENCODE = vectorEncode();
+    /**
+     * Slots of the {@link Config#isScratch()} pool, picked by thread id. A power of two.
+     */
+    private static final int SCRATCH_STRIPES = 8;
+    /**
+     * Longest buffer the {@link Config#isScratch()} pool keeps, longer strings take a fresh array each time.
+     */
+    static final int SCRATCH_CAP = 1024;
+
     // Methods from StringBuilder
     // Name 'toString' not included due to I don't want to shit a shit class that contains only 1 shit method
     public static String[] dashOMethodNames = new String[]{"insert", "indexOf", "lastIndexOf", "append"};
 
-    private static String descriptor = "";
     /**
-     * @see #process(ClassNode)
+     * Name of the decryptor injected by the most recent {@link #apply(ClassNode)} call.
+     * Kept for transformers that want to skip it, the engine itself never reads it back.
+     *
+     * @deprecated races once classes are processed concurrently, use the name on the class instead
+     */
+    @Deprecated
+    public static volatile String d_methodName = "useless";
+
+    private final Config config;
+    /**
+     * Estimated {@code <clinit>} cost of {@link CallSite#EAGER} per package, filled concurrently.
+     */
+    private final Map<String, InitCost> initCosts = new ConcurrentHashMap<>();
+    /**
+     * Shared decryptor holders by internal name, and the ones some call site actually points at.
+     */
+    private final Map<String, ClassNode> holders = new ConcurrentHashMap<>();
+    private final Set<String> usedHolders = ConcurrentHashMap.newKeySet();
+    /**
+     * Internal names of the input's classes, which no holder may take, and of the classes applied so far.
+     */
+    private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+    private final Set<String> appliedNames = ConcurrentHashMap.newKeySet();
+    /**
+     * Call site ids of a diagnostics build, {@code null} unless {@link Config#getCallSiteCounters()} is set.
+     */
+    private final DashOCallSiteCounters counters;
+    /**
+     * Set once a profiled method turned up without original offsets, so the warning is logged once per run.
+     */
+    private final AtomicBoolean offsetsWarned = new AtomicBoolean();
+    /**
+     * Level 10 key step of every string when {@link Config#isKeystream()} is set, odd so one table covers all
+     * start keys; {@code 0} to draw one per string.
      */
-    public static String d_methodName = "useless";
+    private final int keystreamStep;
+
+    public DashOStringEncryption(Config config) {
+        this.config = config;
+        this.counters = config.getCallSiteCounters() == null ? null
+                : new DashOCallSiteCounters(config.getCallSiteCounters());
+        SplittableRandom random = seeded();
+        this.keystreamStep = config.isKeystream() && config.getLevel() == dashO_e
+                ? 65 + 2 * (random == null ? MathUtil.randomInt(0, 12) : random.nextInt(0, 12)) : 0;
+    }
 
+    /**
+     * Encrypts {@code classNode} with the settings currently configured in {@link StringEncryptionManager}.
+     *
+     * @see #apply(ClassNode)
+     */
     public static void process(ClassNode classNode) {
-        switch (StringEncryptionManager.dashO_level.getValue()) {
-            case dashO_a:
-            case dashO_b:
-            case dashO_c:
-            case dashO_d:
-                descriptor = descriptor_1;
-                break;
-            case dashO_e:
-                descriptor = descriptor_10;
-                break;
+        new DashOStringEncryption(Config.fromSettings()).apply(classNode);
+    }
 
-            default:
-                throw new IllegalStateException("Unexpected dashO string encryption level: " + StringEncryptionManager.dashO_level.getValue());
-        }
-        pre:
-        {
-            boolean shit0 = StringEncryptionManager.dashO_name.isEnabled();
-            int shit = shit0 ? ThreadLocalRandomManager
-                    .theThreadLocalRandom
-                    .nextInt(0,
-                            dashOMethodNames.length
-                    ) : ThreadLocalRandomManager.theThreadLocalRandom
-                    .nextInt(2,
-                            32);
-            d_methodName = shit0 ? dashOMethodNames[shit]:
-            StringUtil.randomStringByNaming(shit,
-                    Ambien.get.theNamingNaming
-            );
-        }
-        boolean stringProcessed = false;
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Names the classes of the input, so no shared decryptor holder takes the name of one of them. Drivers using
+     * {@link SharedScope#JAR} or {@link SharedScope#PACKAGE} call it with every class of the jar before the first
+     * {@link #apply(ClassNode)}.
+     *
+     * @param names internal names
+     */
+    public void reserveClassNames(Collection<String> names) {
+        classNames.addAll(names);
+    }
 
+    /**
+     * Encrypts every string constant of {@code classNode} and injects the decryptor.
+     * Safe to call concurrently for different classes.
+     *
+     * @param classNode the class to transform; with a {@link Config#getHotnessProfile() hotness profile} read
+     *                  through {@link BytecodeOffsets#read}, or handed over as bytes to
+     *                  {@link DashOVisitorEngine#transform}, otherwise the profile only scores whole methods
+     * @return whether any string got encrypted
+     */
+    public boolean apply(ClassNode classNode) {
+        ClassState state = begin(classNode);
         for (MethodNode method : classNode.methods) {
+            processMethod(state, method);
+        }
+        return finish(state);
+    }
 
-            // Skip the decrypt method itself and empty methods
-            if (
-                    method.name.equals(d_methodName)
-                    || method.name.equals(AllatoriLikeStringEncryption.a_methodName)
-                    || GOTOASMUtils.isSpecialMethod(method)
-            ) {
-                continue;
-            }
+    /**
+     * Picks the decryptor and call site mode of {@code classNode}, which only needs its header and fields yet.
+     */
+    ClassState begin(ClassNode classNode) {
+        SplittableRandom random = seeded(classNode.name);
+        ClassState state = new ClassState(classNode, nextDecryptorName(random), config.getDescriptor());
+        state.classRandom = random;
+        state.random = random;
+        state.callSite = effectiveCallSite(state);
+        appliedNames.add(classNode.name);
+        if (holders.containsKey(classNode.name)) {
+            throw holderCollision(classNode.name);
+        }
+        if (config.getSharedScope() != SharedScope.NONE) {
+            ClassNode holder = holders.compute(holderName(classNode), (name, existing) -> {
+                if (existing == null) {
+                    if (appliedNames.contains(name)) {
+                        throw holderCollision(name);
+                    }
+                    return createHolder(name, classNode.version);
+                }
+                // The oldest class served decides, so the holder doesn't depend on which class came first
+                if ((classNode.version & 0xFFFF) < (existing.version & 0xFFFF)) {
+                    existing.version = classNode.version;
+                }
+                return existing;
+            });
+            state.decryptorOwner = holder.name;
+            state.decryptorTarget = holder.methods.get(0).name;
+            state.decryptorItf = false;
+        }
+        d_methodName = state.decryptorName;
+        if (config.getMetrics() != null) {
+            state.metrics = config.getMetrics().begin(classNode);
+        }
+        return state;
+    }
 
-            InsnList insns = method.instructions;
-            if (SizeEvaluator.willOverflow(method, insns)) {
-                Ambien.logger.warn(
-                        "Can't do DashO string encryption due to method size overflow at"
-                       +   classNode.name+ "#" + method.name
-                );
+    /**
+     * @return whether {@code method} is left alone: the decrypt method itself and empty methods
+     */
+    boolean skips(ClassState state, MethodNode method) {
+        return skipReason(state, method) != null;
+    }
 
-                continue;
+    private DashOMetrics.SkipReason skipReason(ClassState state, MethodNode method) {
+        if (method.name.equals(state.decryptorName) || method.name.equals(AllatoriLikeStringEncryption.a_methodName)) {
+            return DashOMetrics.SkipReason.DECRYPTOR;
+        }
+        return GOTOASMUtils.isSpecialMethod(method) ? DashOMetrics.SkipReason.SPECIAL : null;
+    }
+
+    private void skipped(ClassState state, MethodNode method, DashOMetrics.SkipReason reason) {
+        if (state.metrics != null) {
+            config.getMetrics().skipped(state.metrics, method, reason);
+        }
+    }
+
+    /**
+     * Encrypts the strings of one method of the class {@code state} belongs to.
+     */
+    void processMethod(ClassState state, MethodNode method) {
+        ClassNode classNode = state.classNode;
+        DashOMetrics.SkipReason reason = skipReason(state, method);
+        if (reason != null) {
+            skipped(state, method, reason);
+            return;
+        }
+
+        InsnList insns = method.instructions;
+        // The table fills go to the head of <clinit>, so its own strings share their budget
+        DashOCodeBudget budget = method.name.equals("<clinit>") && state.initBudget != null
+                ? state.initBudget : DashOCodeBudget.of(method);
+        if (budget.isExceeded()) {
+            Ambien.logger.warn(
+                    "Can't do DashO string encryption due to method size overflow at"
+                   +   classNode.name+ "#" + method.name
+            );
+            skipped(state, method, DashOMetrics.SkipReason.OVERFLOW);
+            return;
+        }
+
+        HotnessProfile profile = config.getHotnessProfile();
+        if (profile != null && profile.covers(classNode.name, method) && !BytecodeOffsets.hasOffsets(method)
+                && offsetsWarned.compareAndSet(false, true)) {
+            Ambien.logger.warn("Hotness profile scores whole methods, starting at " + classNode.name + "#"
+                    + method.name + method.desc + ": read classes through BytecodeOffsets.read or "
+                    + "DashOVisitorEngine to tell its statements apart");
+        }
+        Set<AbstractInsnNode> hot = profile == null
+                ? Collections.<AbstractInsnNode>emptySet()
+                : profile.hotInstructions(classNode.name, method, config.getHotThreshold());
+
+        // Per-call decryptors run once per loop entry instead of per iteration, table modes are cheap already
+        if (state.callSite == CallSite.DIRECT || state.callSite == CallSite.CACHED) {
+            LoopInvariantStrings.Hoist hoist = LoopInvariantStrings.hoist(classNode.name, method, 2);
+            if (hoist != null) {
+                budget = DashOCodeBudget.of(method);
+                if (budget.isExceeded()) {
+                    hoist.undo();
+                    budget = DashOCodeBudget.of(method);
+                }
             }
+        }
 
-            for (AbstractInsnNode insn : insns.toArray()) { // Use toArray() to avoid concurrent modification
-                if (insn instanceof LdcInsnNode) {
-                    LdcInsnNode ldc = (LdcInsnNode) insn;
-                    if (ldc.cst instanceof String) {
-                        // Do not process empty string calls
-                        if (((String) ldc.cst).length() < 2) {
+        state.budget = budget;
+        state.plain = 0;
+        enterMethod(state, method.name, method.desc);
+        if (counters != null && !BytecodeOffsets.hasOffsets(method)) {
+            state.bci = -1;
+        }
+        for (AbstractInsnNode insn : insns.toArray()) { // Use toArray() to avoid concurrent modification
+            if (insn instanceof LabelNode && counters != null) {
+                int offset = BytecodeOffsets.offset((LabelNode) insn);
+                if (offset >= 0) {
+                    state.bci = offset;
+                }
+            } else if (insn instanceof LdcInsnNode) {
+                LdcInsnNode ldc = (LdcInsnNode) insn;
+                if (ldc.cst instanceof String) {
+                    // Do not process empty string calls
+                    if (((String) ldc.cst).length() < 2) {
+                        continue;
+                    }
+                    CallSite callSite = state.callSite;
+                    if (hot.contains(ldc)) {
+                        // Hot paths get a resolved-once constant, or no encryption at all
+                        if (config.isHotPlain() || (classNode.version & 0xFFFF) < V11) {
                             continue;
                         }
-                        stringProcessed = true;
-                        processStringConstant(classNode, method, insns, ldc);
+                        callSite = CallSite.CONDY;
+                    }
+                    if (processStringConstant(state, insns, ldc, callSite)) {
+                        state.stringProcessed = true;
+                        state.ldcStrings++;
                     }
-                } else if (insn instanceof InvokeDynamicInsnNode) {
-                    InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) insn;
-                    if (isStringConcatFactory(invokeDynamic)) {
-                        stringProcessed = processInvokeDynamic(
-                                classNode, method, insns,
-                                invokeDynamic
-                        );
+                }
+            } else if (insn instanceof InvokeDynamicInsnNode) {
+                InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) insn;
+                // Concat constants resolve once either way, hot only matters when hot strings stay plain
+                if (isStringConcatFactory(invokeDynamic) && !(config.isHotPlain() && hot.contains(invokeDynamic))) {
+                    Object[] bsmArgs = encryptConcat(state, invokeDynamic.bsmArgs);
+                    if (bsmArgs != null) {
+                        invokeDynamic.bsmArgs = bsmArgs;
                     }
                 }
             }
         }
+        if (state.plain > 0) {
+            Ambien.logger.warn(
+                    "Left " + state.plain + " strings plain to keep the method under 64K at "
+                   +   classNode.name+ "#" + method.name
+            );
+        }
+    }
+
+    /**
+     * Starts drawing the keys of one method, before its first string is rewritten.
+     */
+    void enterMethod(ClassState state, String name, String descriptor) {
+        state.method = name + descriptor;
+        state.bci = 0;
+        state.sites = 0;
+        state.random = seeded(state.classNode.name, name + descriptor);
+    }
+
+    /**
+     * Injects whatever the rewritten call sites of the class need, once all its methods went through
+     * {@link #processMethod(ClassState, MethodNode)}.
+     *
+     * @return whether any string got encrypted
+     */
+    boolean finish(ClassState state) {
+        ClassNode classNode = state.classNode;
+        state.random = state.classRandom;
+        if (state.stringProcessed) {
+            if (state.decryptorOwner.equals(classNode.name)) {
+                injectDecryptMethod(state); // Ensure decrypt method exists
+            } else {
+                usedHolders.add(state.decryptorOwner);
+            }
+        }
+        if (state.bootstrapNeeded) {
+            injectBootstrapMethod(state);
+        }
+        if (state.counted) {
+            injectCountingDecryptMethod(state);
+        }
+        if (state.slots > 0) {
+            if (state.callSite == CallSite.CACHED) {
+                injectCachedDecryptMethod(state);
+            } else {
+                injectEagerTable(state);
+            }
+        }
+        if (!state.packed.isEmpty()) {
+            injectPackedBlobs(state);
+        }
+        if (state.latin1Used && state.decryptorOwner.equals(classNode.name)) {
+            injectLatin1DecryptMethod(state);
+        }
+        if (state.metrics != null) {
+            config.getMetrics().end(state.metrics, classNode, state.ldcStrings, state.indyStrings);
+        }
+        return state.stringProcessed;
+    }
+
+    /**
+     * Narrows the configured call site mode to what {@code classNode} supports.
+     * Both slot modes need a private static field, which interfaces can't have, and the field shares the
+     * decryptor's name, so that name must not already be taken by a field. {@link CallSite#CACHED} also needs
+     * {@code VarHandle} (Java 9), {@link CallSite#EAGER} and {@link CallSite#PACKED} need room left in
+     * {@code <clinit>}, measured into {@link ClassState#initBudget} that their fills are booked against.
+     * {@link CallSite#CONDY} adds no field and only needs a Java 11 class file.
+     */
+    private CallSite effectiveCallSite(ClassState state) {
+        CallSite callSite = config.getCallSite();
+        ClassNode classNode = state.classNode;
+        if (counters != null) {
+            // Counting is per execution, so every site must reach the decryptor each time
+            return CallSite.DIRECT;
+        }
+        if (callSite == CallSite.CONDY) {
+            return (classNode.version & 0xFFFF) >= V11 ? CallSite.CONDY : CallSite.DIRECT;
+        }
+        if (callSite == CallSite.DIRECT || (classNode.access & ACC_INTERFACE) != 0) {
+            return CallSite.DIRECT;
+        }
+        for (FieldNode field : classNode.fields) {
+            if (field.name.equals(state.decryptorName)) {
+                return CallSite.DIRECT;
+            }
+        }
+        if (callSite == CallSite.CACHED && (classNode.version & 0xFFFF) < V9) {
+            return CallSite.DIRECT;
+        }
+        if (callSite == CallSite.EAGER || callSite == CallSite.PACKED) {
+            state.initBudget = initializerBudget(classNode);
+            if (!state.initBudget.grow(TABLE_BYTES)) {
+                state.initBudget = null;
+                return CallSite.DIRECT;
+            }
+        }
+        return callSite;
+    }
+
+    /**
+     * @return room left in the class initializer, in the empty one {@link #staticInitializer} adds if there is none
+     */
+    private static DashOCodeBudget initializerBudget(ClassNode classNode) {
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals("<clinit>")) {
+                return DashOCodeBudget.of(method);
+            }
+        }
+        MethodNode empty = new MethodNode(ACC_STATIC, "<clinit>", "()V", null, null);
+        empty.instructions.add(new InsnNode(RETURN));
+        return DashOCodeBudget.of(empty);
+    }
+
+    private static IllegalStateException holderCollision(String name) {
+        return new IllegalStateException(
+                "Class " + name + " has the name of a shared decryptor holder, pass it to reserveClassNames first");
+    }
+
+    /**
+     * @return internal name of the holder serving {@code classNode}, the first of {@code sharedName},
+     * {@code sharedName1}, ... that no {@link #reserveClassNames reserved} class has
+     */
+    private String holderName(ClassNode classNode) {
+        int slash = classNode.name.lastIndexOf('/');
+        String name = config.getSharedScope() == SharedScope.JAR || slash == -1 ? config.getSharedName()
+                : classNode.name.substring(0, slash + 1) + config.getSharedName();
+        String free = name;
+        for (int i = 1; classNames.contains(free); i++) {
+            free = name + i;
+        }
+        return free;
+    }
+
+    /**
+     * Creates a holder class containing only the decryptor. It is public for {@link SharedScope#JAR} so every
+     * package can reach it, and ends up with the oldest class file version of the classes it serves.
+     */
+    private ClassNode createHolder(String name, int version) {
+        int visibility = config.getSharedScope() == SharedScope.JAR ? ACC_PUBLIC : 0;
+        ClassNode holder = new ClassNode();
+        holder.visit(version, visibility | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object", null);
+        ClassState state = new ClassState(holder, nextDecryptorName(seeded(name)), config.getDescriptor());
+        state.decryptorAccess = visibility | ACC_STATIC;
+        injectDecryptMethod(state);
+        if (usesLatin1()) {
+            // Serves classes not seen yet, so it can't know whether one of them will need it
+            injectLatin1DecryptMethod(state);
+        }
+        if (config.getMetrics() != null) {
+            config.getMetrics().sharedDecryptorCreated();
+        }
+        return holder;
+    }
+
+    /**
+     * Holder classes generated for {@link SharedScope#JAR} or {@link SharedScope#PACKAGE} that at least one
+     * transformed class calls. The caller adds them to the output jar once every class went through
+     * {@link #apply(ClassNode)}.
+     *
+     * @return the used holder classes
+     */
+    public Collection<ClassNode> getSharedDecryptors() {
+        List<ClassNode> used = new ArrayList<>();
+        for (String name : usedHolders) {
+            used.add(holders.get(name));
+        }
+        return used;
+    }
+
+    /**
+     * Builds the class that counts the call sites of a diagnostics build, see {@link DashOCallSiteCounters}.
+     * Like the shared holders, the caller adds it to the output jar once every class went through
+     * {@link #apply(ClassNode)}; a run with {@code -Ddasho.counters=file} dumps
+     * {@code owner#method(descriptor):bci -> calls} on exit, ready for {@link HotnessProfile#fromFile}.
+     *
+     * @return the counter class, {@code null} if counters are off or no call site was rewritten
+     */
+    public ClassNode getCallSiteCounters() {
+        return counters == null ? null : counters.build();
+    }
 
-        if (stringProcessed) {
-            injectDecryptMethod(classNode); // Ensure decrypt method exists
+    /**
+     * @param random seeded draws of the class being named, {@code null} for the shared generators
+     */
+    private String nextDecryptorName(SplittableRandom random) {
+        if (random != null) {
+            if (config.isDictionaryNames()) {
+                return dashOMethodNames[random.nextInt(dashOMethodNames.length)];
+            }
+            // The naming scheme's generator takes no seed, seeded names are plain letters
+            char[] name = new char[random.nextInt(2, 32)];
+            for (int i = 0; i < name.length; i++) {
+                int letter = random.nextInt(52);
+                name[i] = (char) (letter < 26 ? 'a' + letter : 'A' + letter - 26);
+            }
+            return new String(name);
         }
+        boolean shit0 = config.isDictionaryNames();
+        int shit = shit0 ? ThreadLocalRandomManager
+                .theThreadLocalRandom
+                .nextInt(0,
+                        dashOMethodNames.length
+                ) : ThreadLocalRandomManager.theThreadLocalRandom
+                .nextInt(2,
+                        32);
+        return shit0 ? dashOMethodNames[shit] :
+                StringUtil.randomStringByNaming(shit,
+                        Ambien.get.theNamingNaming
+                );
     }
 
     private static boolean isStringConcatFactory(InvokeDynamicInsnNode invokeDynamic) {
-        return "makeConcatWithConstants".equals(
-                invokeDynamic.name) && "java/lang/invoke/StringConcatFactory".equals(
-                invokeDynamic.bsm.getOwner());
+        return isStringConcatFactory(invokeDynamic.name, invokeDynamic.bsm);
     }
 
-    private static void processStringConstant(ClassNode classNode, MethodNode method, InsnList insns, LdcInsnNode ldc) {
+    static boolean isStringConcatFactory(String name, Handle bsm) {
+        return "makeConcatWithConstants".equals(name) && "java/lang/invoke/StringConcatFactory".equals(bsm.getOwner());
+    }
+
+    /**
+     * @return whether every call site is a plain {@link CallSite#DIRECT} rewrite that
+     * {@link DashOVisitorEngine} can emit while the class streams past
+     */
+    boolean isStreamable() {
+        return config.getCallSite() == CallSite.DIRECT && config.getHotnessProfile() == null
+                && config.getMetrics() == null && counters == null;
+    }
+
+    /**
+     * @return whether a class comes out the same for the same input, whatever else is in the jar, so
+     * {@link DashOClassCache} may hand out the output of an earlier run
+     */
+    boolean isCacheable() {
+        return config.getSharedScope() == SharedScope.NONE && config.getHotnessProfile() == null
+                && counters == null;
+    }
+
+    /**
+     * Visitor form of a {@link CallSite#DIRECT} {@link #processString}: emits the decryptor arguments and call
+     * in place of {@code LDC original}.
+     */
+    void visitDecrypt(ClassState state, MethodVisitor methodVisitor, String original) {
+        int b = nextKey(state);
+        int c = nextStep(state);
+        String encrypted = autoEncode(config.getLevel(), b, c, original);
+        if (config.getLevel() == dashO_e) {
+            visitInt(methodVisitor, b);
+            visitInt(methodVisitor, c);
+            methodVisitor.visitLdcInsn(encrypted);
+        } else {
+            methodVisitor.visitLdcInsn(encrypted);
+            visitInt(methodVisitor, b);
+        }
+        decryptCall(state, original).accept(methodVisitor);
+        state.stringProcessed = true;
+        state.ldcStrings++;
+    }
+
+    private static void visitInt(MethodVisitor methodVisitor, int value) {
+        if (value >= -1 && value <= 5) {
+            methodVisitor.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            methodVisitor.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            methodVisitor.visitIntInsn(SIPUSH, value);
+        } else {
+            methodVisitor.visitLdcInsn(value);
+        }
+    }
+
+    private boolean processStringConstant(ClassState state, InsnList insns, LdcInsnNode ldc, CallSite callSite) {
         String original = (String) ldc.cst;
-        processString(classNode, method, insns, ldc, original);
-    }
-
-    private static boolean processInvokeDynamic(ClassNode classNode, MethodNode method,
-                                                InsnList insns, InvokeDynamicInsnNode invokeDynamic
-    ) {
-        boolean processed = false;
-        for (Object arg : invokeDynamic.bsmArgs) {
-            if (arg instanceof String) {
-                String original = (String) arg;
-                // Do not process empty string calls
-                if (((String) arg).isEmpty()) {
-                    continue;
+        return processString(state, insns, ldc, original, callSite);
+    }
+
+    /**
+     * Encrypts the text of a {@code makeConcatWithConstants} call site while keeping {@code StringConcatFactory}
+     * as its bootstrap, so the JDK still links its optimized concatenation. Every literal run of the recipe moves
+     * into a {@code \2} constant, and every string constant becomes a {@link ConstantDynamic} of the
+     * {@link CallSite#CONDY} bootstrap, which the JVM resolves before {@code StringConcatFactory} ever sees it:
+     * <pre>
+     * recipe "id=\1, name=\1", constants []  -&gt;  recipe "\2\1\2\1", constants [condy "id=", condy ", name="]
+     * </pre>
+     * Operands and the call site's stack shape stay as they are. One-char runs stay in the recipe like one-char
+     * {@code LDC}s, and classes below Java 11 have no condy, so their concatenations stay plain.
+     *
+     * @param bsmArgs recipe and constants of the call site
+     * @return the new recipe and constants, {@code null} if nothing got encrypted
+     */
+    Object[] encryptConcat(ClassState state, Object[] bsmArgs) {
+        if ((state.classNode.version & 0xFFFF) < V11 || bsmArgs.length == 0 || !(bsmArgs[0] instanceof String)) {
+            return null;
+        }
+        String recipe = (String) bsmArgs[0];
+        StringBuilder newRecipe = new StringBuilder();
+        List<Object> newArgs = new ArrayList<>();
+        newArgs.add(null); // The recipe, once known
+        StringBuilder literal = new StringBuilder();
+        int constant = 1;
+        int encrypted = 0;
+        for (int i = 0; i < recipe.length(); i++) {
+            char ch = recipe.charAt(i);
+            if (ch != '\u0001' && ch != '\u0002') {
+                literal.append(ch);
+                continue;
+            }
+            encrypted += flushLiteral(state, literal, newRecipe, newArgs);
+            newRecipe.append(ch);
+            if (ch == '\u0002') {
+                Object value = bsmArgs[constant++];
+                if (value instanceof String && !((String) value).isEmpty()) {
+                    value = encryptedConstant(state, (String) value);
+                    encrypted++;
                 }
-                processString(classNode, method, insns, invokeDynamic, original);
-                processed = true;
+                newArgs.add(value);
             }
         }
-        return processed;
+        encrypted += flushLiteral(state, literal, newRecipe, newArgs);
+        if (encrypted == 0) {
+            return null;
+        }
+        newArgs.set(0, newRecipe.toString());
+        state.stringProcessed = true;
+        state.bootstrapNeeded = true;
+        state.indyStrings += encrypted;
+        return newArgs.toArray();
+    }
+
+    /**
+     * Ends the literal run collected so far, as a {@code \2} constant if it's worth encrypting.
+     *
+     * @return {@code 1} if the run got encrypted
+     */
+    private int flushLiteral(ClassState state, StringBuilder literal, StringBuilder newRecipe, List<Object> newArgs) {
+        int encrypted = 0;
+        if (literal.length() < 2) {
+            newRecipe.append(literal);
+        } else {
+            newRecipe.append('\u0002');
+            newArgs.add(encryptedConstant(state, literal.toString()));
+            encrypted = 1;
+        }
+        literal.setLength(0);
+        return encrypted;
+    }
+
+    /**
+     * @return a {@link CallSite#CONDY} constant for {@code original}, under fresh keys
+     */
+    private ConstantDynamic encryptedConstant(ClassState state, String original) {
+        int b = nextKey(state);
+        int c = nextStep(state);
+        return encryptedConstant(state, b, c, autoEncode(config.getLevel(), b, c, original));
     }
 
-    private static void processString(ClassNode classNode, MethodNode method, InsnList insns, AbstractInsnNode node, String original) {
-        int b = MathUtil.randomInt('\u3040', '\u309f');
-        int c = MathUtil.randomInt(64, 89);
-        String encrypted = autoEncode(b, c, original);
+    /**
+     * Keys and payload travel as static arguments of the bootstrap, in the order of the level's descriptor.
+     */
+    private ConstantDynamic encryptedConstant(ClassState state, int b, int c, String encrypted) {
+        Object[] bsmArgs = config.getLevel() == dashO_e
+                ? new Object[]{b, c, encrypted}
+                : new Object[]{encrypted, b};
+        return new ConstantDynamic(state.decryptorName, "Ljava/lang/String;", state.bootstrapHandle(), bsmArgs);
+    }
+
+    /**
+     * Rewrites one string at {@code node}, unless the method's {@link DashOCodeBudget} has no room left for it.
+     *
+     * @return whether the string got rewritten, {@link ClassState#plain} counts it otherwise
+     */
+    private boolean processString(ClassState state, InsnList insns, AbstractInsnNode node, String original,
+                                  CallSite callSite) {
+        if (callSite == CallSite.PACKED) {
+            int[][] slices = packedSlices(state, original);
+            int last = slices[slices.length - 1][0];
+            // Blobs this literal opens get their decrypt in <clinit>, past its room the literal stays per call
+            int fills = Math.max(0, last + 1 - state.blobFills) * BLOB_FILL_BYTES;
+            if (state.initBudget.grow(fills)) {
+                InsnList load = packedLoad(state, slices);
+                if (!state.budget.replace(node, load)) {
+                    state.initBudget.shrink(fills);
+                    state.plain++;
+                    return false;
+                }
+                state.blobFills = Math.max(state.blobFills, last + 1);
+                placePacked(state, original, slices);
+                insns.insert(node, load);
+                insns.remove(node);
+                return true;
+            }
+            callSite = CallSite.DIRECT;
+        }
+
+        int b = nextKey(state);
+        int c = nextStep(state);
+        boolean eager = callSite == CallSite.EAGER && state.slots < MAX_EAGER_CONSTANTS;
+        long start = eager ? System.nanoTime() : 0L;
+        String encrypted = autoEncode(config.getLevel(), b, c, original);
+        long encodeNanos = eager ? System.nanoTime() - start : 0L;
+        InsnList fill = null;
+        if (eager) {
+            fill = new InsnList();
+            fill.add(new InsnNode(DUP));
+            fill.add(Myj2cASMUtils.pushInt(state.slots));
+            fill.add(decryptArguments(b, c, encrypted));
+            fill.add(pendingDecryptCall(state, original));
+            fill.add(new InsnNode(AASTORE));
+            // Past the room left in <clinit> the remaining constants stay per call
+            eager = state.initBudget.grow(DashOCodeBudget.size(fill));
+        }
+
+        // Everything the call site gets is built first, so a rewrite past the budget leaves no trace
+        InsnList newList;
+        if (callSite == CallSite.CONDY) {
+            // One LDC of a constant the bootstrap decrypts
+            newList = new InsnList();
+            newList.add(new LdcInsnNode(encryptedConstant(state, b, c, encrypted)));
+        } else if (eager) {
+            // Move the whole decrypt into <clinit> and leave a table load behind
+            newList = new InsnList();
+            newList.add(new FieldInsnNode(GETSTATIC, state.classNode.name, state.decryptorName, "[Ljava/lang/String;"));
+            newList.add(Myj2cASMUtils.pushInt(state.slots));
+            newList.add(new InsnNode(AALOAD));
+        } else {
+            newList = decryptArguments(b, c, encrypted);
+            if (callSite == CallSite.CACHED) {
+                // Same name, one extra int: the slot this call site owns
+                newList.add(Myj2cASMUtils.pushInt(state.slots));
+                newList.add(new MethodInsnNode(
+                        INVOKESTATIC, state.classNode.name, state.decryptorName,
+                        state.cachedDescriptor(), false
+                ));
+            } else if (counters != null) {
+                // Same name, one extra int: the id this call site is counted under. An id refused by the budget
+                // is never hit, so it never shows up in the dump.
+                newList.add(Myj2cASMUtils.pushInt(counters.register(state.classNode.name, state.method, state.bci,
+                        state.sites++)));
+                newList.add(new MethodInsnNode(
+                        INVOKESTATIC, state.classNode.name, state.decryptorName,
+                        state.cachedDescriptor(), (state.classNode.access & ACC_INTERFACE) != 0
+                ));
+            } else {
+                newList.add(pendingDecryptCall(state, original));
+            }
+        }
+        if (!state.budget.replace(node, newList)) {
+            if (eager) {
+                state.initBudget.shrink(DashOCodeBudget.size(fill));
+            }
+            state.plain++;
+            return false;
+        }
+
+        if (callSite == CallSite.CONDY) {
+            state.bootstrapNeeded = true;
+        } else if (eager) {
+            state.slots++;
+            state.eagerInit.add(fill);
+            if (takesLatin1(original)) {
+                state.latin1Used = true;
+            }
+            // The cipher is symmetric, so encrypting costs what the decrypt in <clinit> will
+            state.eagerNanos += encodeNanos;
+            state.eagerChars += original.length();
+        } else if (callSite == CallSite.CACHED) {
+            state.slots++;
+        } else if (counters != null) {
+            state.counted = true;
+        } else if (takesLatin1(original)) {
+            state.latin1Used = true;
+        }
+        insns.insert(node, newList);
+        insns.remove(node);
+        return true;
+    }
 
+    /**
+     * Pushes the decryptor arguments in the order of this level's descriptor.
+     */
+    private InsnList decryptArguments(int b, int c, String encrypted) {
         InsnList newList = new InsnList();
         // Level 10: IILjava/lang/String;
-        if (StringEncryptionManager.dashO_level.getValue() == dashO_e) {
+        if (config.getLevel() == dashO_e) {
             newList.add(Myj2cASMUtils.pushInt(b));
             newList.add(Myj2cASMUtils.pushInt(c));
             newList.add(new LdcInsnNode(encrypted));
@@ -205,47 +862,153 @@ public class DashOStringEncryption implements Opcodes {
             newList.add(new LdcInsnNode(encrypted));
             newList.add(Myj2cASMUtils.pushInt(b));
         }
-        newList.add(new MethodInsnNode(
-                INVOKESTATIC, classNode.name, d_methodName,
-                descriptor, false
-        ));
+        return newList;
+    }
 
-        insns.insert(node, newList);
-        insns.remove(node);
+    /**
+     * @return {blob, start, end} of each piece of {@code original}: an earlier copy of the same literal, or where
+     * {@link #placePacked} will append it. A single piece unless {@code original} is larger than a blob holds, then
+     * it fills up blobs and goes on in the next one.
+     */
+    private static int[][] packedSlices(ClassState state, String original) {
+        int[][] slices = state.packed.get(original);
+        if (slices != null) {
+            return slices;
+        }
+        int blob = state.blobs.size();
+        int start = state.blob.length();
+        int bytes = state.blobBytes;
+        // A literal that fits a blob of its own starts the next one instead of being split
+        if (start > 0 && bytes + blobBytes(original) > MAX_BLOB_BYTES && blobBytes(original) <= MAX_BLOB_BYTES) {
+            blob++;
+            start = 0;
+            bytes = 0;
+        }
+        List<int[]> pieces = new ArrayList<>();
+        int from = 0;
+        do {
+            int to = from;
+            while (to < original.length() && bytes + blobBytes(original.charAt(to)) <= MAX_BLOB_BYTES) {
+                bytes += blobBytes(original.charAt(to++));
+            }
+            if (to == from && to < original.length()) {
+                blob++;
+                start = 0;
+                bytes = 0;
+                continue;
+            }
+            pieces.add(new int[]{blob, start, start + to - from});
+            start += to - from;
+            from = to;
+        } while (from < original.length());
+        return pieces.toArray(new int[0][]);
     }
 
-    private static void removeDecryptMethod(ClassNode classNode) {
-        classNode.methods.removeIf(
-                method -> method.name.equals(d_methodName) && method.desc.equals(
-                        descriptor));
+    private static void placePacked(ClassState state, String original, int[][] slices) {
+        if (state.packed.containsKey(original)) {
+            return;
+        }
+        int from = 0;
+        for (int[] slice : slices) {
+            if (slice[0] > state.blobs.size()) {
+                state.blobs.add(state.blob.toString());
+                state.blob.setLength(0);
+                state.blobBytes = 0;
+            }
+            int to = from + slice[2] - slice[1];
+            String piece = original.substring(from, to);
+            state.blob.append(piece);
+            state.blobBytes += blobBytes(piece);
+            from = to;
+        }
+        state.packed.put(original, slices);
     }
 
     /**
-     * Detect if the injected method already exists in the classNode.
-     * If it did not, inject it.
-     *
-     * @param classNode the class node to check and inject
-     * @author a114mc
-     * @author ASMIfier
-     * @see DashOStringEncryption#d_methodName
-     * @see DashOStringEncryption#descriptor
+     * @return {@code blobs[blob].substring(start, end)} for the call site, concatenated for a split literal
      */
-    private static void injectDecryptMethod(ClassNode classNode) {
-        // 检查解密方法是否已存在，防止重复注入
-        for (MethodNode existingMethod : classNode.methods) {
-            if (existingMethod.name.equals(d_methodName) && existingMethod.desc.equals(descriptor)) {
-                return; // Method exists
+    private static InsnList packedLoad(ClassState state, int[][] slices) {
+        InsnList newList = new InsnList();
+        for (int i = 0; i < slices.length; i++) {
+            newList.add(new FieldInsnNode(GETSTATIC, state.classNode.name, state.decryptorName, "[Ljava/lang/String;"));
+            newList.add(Myj2cASMUtils.pushInt(slices[i][0]));
+            newList.add(new InsnNode(AALOAD));
+            newList.add(Myj2cASMUtils.pushInt(slices[i][1]));
+            newList.add(Myj2cASMUtils.pushInt(slices[i][2]));
+            newList.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;",
+                    false));
+            if (i > 0) {
+                newList.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "concat",
+                        "(Ljava/lang/String;)Ljava/lang/String;", false));
             }
         }
+        return newList;
+    }
+
+    /**
+     * Upper bound of the modified UTF-8 size of {@code plain} once encrypted. The key is masked with
+     * {@link #jamesBraverIsStupid}, which never touches bit 5 or anything above bit 6: ASCII stays ASCII but may
+     * become {@code \0} (2 bytes) unless bit 5 is set, and wider chars keep their width.
+     */
+    private static int blobBytes(String plain) {
+        int bytes = 0;
+        for (int i = 0; i < plain.length(); i++) {
+            bytes += blobBytes(plain.charAt(i));
+        }
+        return bytes;
+    }
+
+    private static int blobBytes(char ch) {
+        if (ch < 0x80) {
+            return (ch & 0x20) != 0 ? 1 : 2;
+        }
+        return ch < 0x800 ? 2 : 3;
+    }
+
+    private static void removeDecryptMethod(ClassState state) {
+        state.classNode.methods.removeIf(
+                method -> method.name.equals(state.decryptorName) && method.desc.equals(
+                        state.descriptor));
+    }
+
+    /**
+     * Injects a decryptor into {@code classNode} without rewriting any code, for cost measurements.
+     *
+     * @return name of the injected decryptor
+     */
+    String injectDecryptMethod(ClassNode classNode) {
+        ClassState state = new ClassState(classNode, nextDecryptorName(seeded(classNode.name)), config.getDescriptor());
+        injectDecryptMethod(state);
+        return state.decryptorName;
+    }
+
+    /**
+     * Detect if the injected method already exists in the classNode.
+     * If it did not, inject it.
+     *
+     * @param state the class to check and inject
+     * @author a114mc
+     * @author ASMIfier
+     * @see ClassState#decryptorName
+     * @see Config#getDescriptor()
+     */
+    private void injectDecryptMethod(ClassState state) {
+        ClassNode classNode = state.classNode;
+        // 检查解密方法是否已存在，防止重复注入
+        for (MethodNode existingMethod : classNode.methods) {
+            if (existingMethod.name.equals(state.decryptorName) && existingMethod.desc.equals(state.descriptor)) {
+                return; // Method exists
+            }
+        }
+
+        // 定义方法访问标志和签名
+        // 假设 'methodName' 和 'descriptor' 是预先定义的常量或字段
+        MethodBuilder methodBuilder = MethodBuilder.builder()
+                .name(state.decryptorName)
+                .access(state.decryptorAccess)
+                .desc(state.descriptor)
+                .build();
 
-        // 定义方法访问标志和签名
-        // 假设 'methodName' 和 'descriptor' 是预先定义的常量或字段
-        MethodBuilder methodBuilder = MethodBuilder.builder()
-                .name(d_methodName)
-                .access(ACC_PRIVATE | ACC_STATIC)
-                .desc(descriptor)
-                .build();
-
         // 如果 GOTOASMUtils 需要，应用 synthetic 和 bridge 标志
         if (GOTOASMUtils.shouldMarkAsSynthetic(methodBuilder.buildNode())) {
             methodBuilder.addAccess(ACC_SYNTHETIC);
@@ -255,11 +1018,27 @@ public class DashOStringEncryption implements Opcodes {
         }
 
         MethodNode methodVisitor = methodBuilder.buildNode();
+        if (usesKeystream(classNode)) {
+            visitKeystreamDecrypt(state, methodVisitor, false);
+            classNode.methods.add(methodVisitor);
+            return;
+        }
+        if (usesScratch(classNode)) {
+            visitScratchDecrypt(state, methodVisitor);
+            classNode.methods.add(methodVisitor);
+            return;
+        }
+        if (usesCompact()) {
+            visitCompactDecrypt(state, methodVisitor);
+            classNode.methods.add(methodVisitor);
+            injectCompactLoop(state);
+            return;
+        }
 
 
         // --- 方法代码生成开始 ---
         methodVisitor.visitCode();
-        switch (StringEncryptionManager.dashO_level.getValue()) {
+        switch (config.getLevel()) {
             case dashO_a: {
 
                 methodVisitor.visitInsn(ICONST_4);
@@ -364,6 +1143,7 @@ public class DashOStringEncryption implements Opcodes {
                         INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
                 methodVisitor.visitInsn(SWAP);
                 methodVisitor.visitInsn(POP);
+                methodVisitor.visitInsn(ARETURN);
             }
             break;
             case dashO_c: {
@@ -556,6 +1336,949 @@ public class DashOStringEncryption implements Opcodes {
         classNode.methods.add(methodVisitor);
     }
 
+    /**
+     * Whether the decryptor of {@code classNode} takes {@link #visitKeystreamDecrypt}. Its lazily filled table
+     * is a non-final static field, which interfaces can't have, and level 7 has no keystream to speak of.
+     */
+    private boolean usesKeystream(ClassNode classNode) {
+        return config.isKeystream() && config.getLevel() != dashO_d && (classNode.access & ACC_INTERFACE) == 0;
+    }
+
+    /**
+     * Decryptor body of the XOR levels on a precomputed keystream table instead of a key carried through the
+     * loop:
+     * <pre>
+     * private static char[] keys; // (i * step) &amp; 95 for two periods, filled on first use
+     *
+     * static String decrypt(String s, int key) {
+     *     char[] table = keys != null ? keys : (keys = "...".toCharArray());
+     *     char[] chars = s.toCharArray();
+     *     int phase = (key + shift) * inverse(step) &amp; 127;
+     *     for (int i = 0; i &lt; chars.length; i += 128) {
+     *         int end = Math.min(chars.length, i + 128);
+     *         int offset = phase - i;
+     *         for (int j = i; j &lt; end; j++) chars[j] ^= table[j + offset];
+     *     }
+     *     return new String(chars).intern();
+     * }
+     * </pre>
+     * With an odd step, {@code key + shift + n * step} and {@code step * (phase + n)} agree modulo 128, so one
+     * table per step serves every start key. The inner loop carries no key and reads both arrays contiguously,
+     * which C2 unrolls and vectorizes. A racy first fill is harmless, every thread builds the same table.
+     * With {@code latin1} the loop runs over {@code s.getBytes(ISO_8859_1)} instead, see
+     * {@link #injectLatin1DecryptMethod}.
+     */
+    private void visitKeystreamDecrypt(ClassState state, MethodNode methodVisitor, boolean latin1) {
+        String owner = state.classNode.name;
+        String field = state.decryptorName;
+        int level = config.getLevel();
+        int step = keyStep(level, keystreamStep);
+        boolean levelE = level == dashO_e;
+        int stringArg = levelE ? 2 : 0;
+        int keyArg = levelE ? 0 : 1;
+        int table = levelE ? 3 : 2;
+        int chars = table + 1;
+        int phase = table + 2;
+        int i = table + 3;
+        int end = table + 4;
+        int offset = table + 5;
+        int j = table + 6;
+
+        if (!hasField(state.classNode, field, "[C")) {
+            state.classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, field, "[C", null,
+                    null));
+        }
+
+        methodVisitor.visitCode();
+        Label ready = new Label();
+        methodVisitor.visitFieldInsn(GETSTATIC, owner, field, "[C");
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitJumpInsn(IFNONNULL, ready);
+        methodVisitor.visitInsn(POP);
+        methodVisitor.visitLdcInsn(new String(keystream(0, step)));
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false);
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitFieldInsn(PUTSTATIC, owner, field, "[C");
+        methodVisitor.visitLabel(ready);
+        methodVisitor.visitVarInsn(ASTORE, table);
+
+        visitPayload(methodVisitor, stringArg, latin1);
+        methodVisitor.visitVarInsn(ASTORE, chars);
+        methodVisitor.visitVarInsn(ILOAD, keyArg);
+        if (keyShift(level) != 0) {
+            visitInt(methodVisitor, keyShift(level));
+            methodVisitor.visitInsn(IADD);
+        }
+        visitInt(methodVisitor, inverse(step));
+        methodVisitor.visitInsn(IMUL);
+        visitInt(methodVisitor, KEYSTREAM_PERIOD - 1);
+        methodVisitor.visitInsn(IAND);
+        methodVisitor.visitVarInsn(ISTORE, phase);
+
+        Label outer = new Label();
+        Label done = new Label();
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ISTORE, i);
+        methodVisitor.visitLabel(outer);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitInsn(ARRAYLENGTH);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, done);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitInsn(ARRAYLENGTH);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        visitInt(methodVisitor, KEYSTREAM_PERIOD);
+        methodVisitor.visitInsn(IADD);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "min", "(II)I", false);
+        methodVisitor.visitVarInsn(ISTORE, end);
+        methodVisitor.visitVarInsn(ILOAD, phase);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitInsn(ISUB);
+        methodVisitor.visitVarInsn(ISTORE, offset);
+
+        Label inner = new Label();
+        Label next = new Label();
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitVarInsn(ISTORE, j);
+        methodVisitor.visitLabel(inner);
+        methodVisitor.visitVarInsn(ILOAD, j);
+        methodVisitor.visitVarInsn(ILOAD, end);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, next);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitVarInsn(ILOAD, j);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(latin1 ? BALOAD : CALOAD);
+        methodVisitor.visitVarInsn(ALOAD, table);
+        methodVisitor.visitVarInsn(ILOAD, j);
+        methodVisitor.visitVarInsn(ILOAD, offset);
+        methodVisitor.visitInsn(IADD);
+        methodVisitor.visitInsn(CALOAD);
+        methodVisitor.visitInsn(IXOR);
+        methodVisitor.visitInsn(latin1 ? I2B : I2C);
+        methodVisitor.visitInsn(latin1 ? BASTORE : CASTORE);
+        methodVisitor.visitIincInsn(j, 1);
+        methodVisitor.visitJumpInsn(GOTO, inner);
+        methodVisitor.visitLabel(next);
+        methodVisitor.visitIincInsn(i, KEYSTREAM_PERIOD);
+        methodVisitor.visitJumpInsn(GOTO, outer);
+        methodVisitor.visitLabel(done);
+        visitResult(methodVisitor, chars, latin1);
+    }
+
+    /**
+     * Whether the decryptor of {@code classNode} takes {@link #visitScratchDecrypt}. Like the keystream table,
+     * the pool is a lazily filled non-final static field.
+     */
+    private boolean usesScratch(ClassNode classNode) {
+        return config.isScratch() && config.getLevel() != dashO_d && (classNode.access & ACC_INTERFACE) == 0;
+    }
+
+    /**
+     * Decryptor body of the XOR levels on a pooled buffer instead of {@code toCharArray()}:
+     * <pre>
+     * private static AtomicReferenceArray scratch; // filled on first use
+     *
+     * static String decrypt(String s, int key) {
+     *     int n = s.length();
+     *     AtomicReferenceArray pool = scratch != null ? scratch : (scratch = new AtomicReferenceArray(8));
+     *     int slot = (int) Thread.currentThread().getId() &amp; 7;
+     *     char[] chars = n &lt;= 1024 ? (char[]) pool.getAndSet(slot, null) : null;
+     *     if (chars == null || chars.length &lt; n) chars = new char[n];
+     *     s.getChars(0, n, chars, 0);
+     *     for (int i = 0, k = key + shift; i &lt; n; i++, k += step) chars[i] ^= k &amp; 95;
+     *     String result = String.valueOf(chars, 0, n).intern();
+     *     if (n &lt;= 1024) pool.set(slot, chars);
+     *     return result;
+     * }
+     * </pre>
+     * Taking the buffer out of its slot makes it exclusive without a lock, so a virtual thread never pins and
+     * two threads on one slot just allocate. Buffers only grow up to {@link #SCRATCH_CAP} and the pool holds
+     * at most {@link #SCRATCH_STRIPES} of them per class, however many threads decrypt.
+     */
+    private void visitScratchDecrypt(ClassState state, MethodNode methodVisitor) {
+        String owner = state.classNode.name;
+        String field = state.decryptorName;
+        String pool = "java/util/concurrent/atomic/AtomicReferenceArray";
+        String poolDesc = "L" + pool + ";";
+        int level = config.getLevel();
+        boolean levelE = level == dashO_e;
+        int stringArg = levelE ? 2 : 0;
+        int n = levelE ? 3 : 2;
+        int slots = n + 1;
+        int slot = n + 2;
+        int chars = n + 3;
+        int key = n + 4;
+        int i = n + 5;
+        int result = n + 6;
+
+        if (!hasField(state.classNode, field, poolDesc)) {
+            state.classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, field, poolDesc,
+                    null, null));
+        }
+
+        methodVisitor.visitCode();
+        methodVisitor.visitVarInsn(ALOAD, stringArg);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        methodVisitor.visitVarInsn(ISTORE, n);
+        Label ready = new Label();
+        methodVisitor.visitFieldInsn(GETSTATIC, owner, field, poolDesc);
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitJumpInsn(IFNONNULL, ready);
+        methodVisitor.visitInsn(POP);
+        methodVisitor.visitTypeInsn(NEW, pool);
+        methodVisitor.visitInsn(DUP);
+        visitInt(methodVisitor, SCRATCH_STRIPES);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, pool, "<init>", "(I)V", false);
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitFieldInsn(PUTSTATIC, owner, field, poolDesc);
+        methodVisitor.visitLabel(ready);
+        methodVisitor.visitVarInsn(ASTORE, slots);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Thread", "currentThread", "()Ljava/lang/Thread;",
+                false);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Thread", "getId", "()J", false);
+        methodVisitor.visitInsn(L2I);
+        visitInt(methodVisitor, SCRATCH_STRIPES - 1);
+        methodVisitor.visitInsn(IAND);
+        methodVisitor.visitVarInsn(ISTORE, slot);
+
+        Label allocate = new Label();
+        Label copy = new Label();
+        methodVisitor.visitInsn(ACONST_NULL);
+        methodVisitor.visitVarInsn(ASTORE, chars);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        visitInt(methodVisitor, SCRATCH_CAP);
+        methodVisitor.visitJumpInsn(IF_ICMPGT, allocate);
+        methodVisitor.visitVarInsn(ALOAD, slots);
+        methodVisitor.visitVarInsn(ILOAD, slot);
+        methodVisitor.visitInsn(ACONST_NULL);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, pool, "getAndSet", "(ILjava/lang/Object;)Ljava/lang/Object;",
+                false);
+        methodVisitor.visitTypeInsn(CHECKCAST, "[C");
+        methodVisitor.visitVarInsn(ASTORE, chars);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitJumpInsn(IFNULL, allocate);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitInsn(ARRAYLENGTH);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, copy);
+        methodVisitor.visitLabel(allocate);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        methodVisitor.visitIntInsn(NEWARRAY, T_CHAR);
+        methodVisitor.visitVarInsn(ASTORE, chars);
+        methodVisitor.visitLabel(copy);
+        methodVisitor.visitVarInsn(ALOAD, stringArg);
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "getChars", "(II[CI)V", false);
+
+        methodVisitor.visitVarInsn(ILOAD, levelE ? 0 : 1);
+        if (keyShift(level) != 0) {
+            visitInt(methodVisitor, keyShift(level));
+            methodVisitor.visitInsn(IADD);
+        }
+        methodVisitor.visitVarInsn(ISTORE, key);
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ISTORE, i);
+        Label loop = new Label();
+        Label done = new Label();
+        methodVisitor.visitLabel(loop);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, done);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(CALOAD);
+        methodVisitor.visitVarInsn(ILOAD, key);
+        methodVisitor.visitIntInsn(BIPUSH, jamesBraverIsStupid);
+        methodVisitor.visitInsn(IAND);
+        methodVisitor.visitInsn(IXOR);
+        methodVisitor.visitInsn(I2C);
+        methodVisitor.visitInsn(CASTORE);
+        if (levelE) {
+            // Level 10 steps by its second argument
+            methodVisitor.visitVarInsn(ILOAD, key);
+            methodVisitor.visitVarInsn(ILOAD, 1);
+            methodVisitor.visitInsn(IADD);
+            methodVisitor.visitVarInsn(ISTORE, key);
+        } else {
+            methodVisitor.visitIincInsn(key, keyStep(level, 0));
+        }
+        methodVisitor.visitIincInsn(i, 1);
+        methodVisitor.visitJumpInsn(GOTO, loop);
+        methodVisitor.visitLabel(done);
+
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ILOAD, n);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "([CII)Ljava/lang/String;",
+                false);
+        // Level 10's own decryptor doesn't intern
+        if (!levelE) {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
+        }
+        methodVisitor.visitVarInsn(ASTORE, result);
+        Label out = new Label();
+        methodVisitor.visitVarInsn(ILOAD, n);
+        visitInt(methodVisitor, SCRATCH_CAP);
+        methodVisitor.visitJumpInsn(IF_ICMPGT, out);
+        methodVisitor.visitVarInsn(ALOAD, slots);
+        methodVisitor.visitVarInsn(ILOAD, slot);
+        methodVisitor.visitVarInsn(ALOAD, chars);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, pool, "set", "(ILjava/lang/Object;)V", false);
+        methodVisitor.visitLabel(out);
+        methodVisitor.visitVarInsn(ALOAD, result);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+    }
+
+    /**
+     * Whether decryptors take {@link #visitCompactDecrypt}, level 7 has no key schedule to put in a loop.
+     */
+    private boolean usesCompact() {
+        return config.isCompact() && config.getLevel() != dashO_d;
+    }
+
+    /**
+     * @return descriptor of the loop {@link #injectCompactLoop} adds next to the decryptor
+     */
+    private String compactLoopDescriptor() {
+        return config.getLevel() == dashO_e ? "([CII)[C" : "([CI)[C";
+    }
+
+    /**
+     * Decryptor body of {@link Config#isCompact()}, about 15 bytes of bytecode:
+     * <pre>
+     * static String decrypt(String s, int key) {
+     *     return String.valueOf(decrypt(s.toCharArray(), key + shift)).intern();
+     * }
+     * </pre>
+     */
+    private void visitCompactDecrypt(ClassState state, MethodNode methodVisitor) {
+        int level = config.getLevel();
+        boolean levelE = level == dashO_e;
+        methodVisitor.visitCode();
+        methodVisitor.visitVarInsn(ALOAD, levelE ? 2 : 0);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false);
+        methodVisitor.visitVarInsn(ILOAD, levelE ? 0 : 1);
+        if (keyShift(level) != 0) {
+            visitInt(methodVisitor, keyShift(level));
+            methodVisitor.visitInsn(IADD);
+        }
+        if (levelE) {
+            methodVisitor.visitVarInsn(ILOAD, 1);
+        }
+        methodVisitor.visitMethodInsn(INVOKESTATIC, state.classNode.name, state.decryptorName,
+                compactLoopDescriptor(), (state.classNode.access & ACC_INTERFACE) != 0);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "([C)Ljava/lang/String;", false);
+        // Level 10's own decryptor doesn't intern
+        if (!levelE) {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
+        }
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+    }
+
+    /**
+     * Adds the loop of {@link #visitCompactDecrypt}, an overload of the decryptor in canonical counted form, about
+     * 30 bytes:
+     * <pre>
+     * static char[] decrypt(char[] chars, int key) {
+     *     for (int i = 0; i &lt; chars.length; i++) {
+     *         chars[i] ^= key &amp; 95;
+     *         key += step;
+     *     }
+     *     return chars;
+     * }
+     * </pre>
+     * Level 10 takes {@code step} as a third argument. The loop header carries its own frame, so the method
+     * needs no frame computation.
+     */
+    private void injectCompactLoop(ClassState state) {
+        ClassNode classNode = state.classNode;
+        String descriptor = compactLoopDescriptor();
+        for (MethodNode existingMethod : classNode.methods) {
+            if (existingMethod.name.equals(state.decryptorName) && existingMethod.desc.equals(descriptor)) {
+                return;
+            }
+        }
+        int level = config.getLevel();
+        boolean levelE = level == dashO_e;
+        int i = levelE ? 3 : 2;
+        Object[] locals = levelE
+                ? new Object[]{"[C", Opcodes.INTEGER, Opcodes.INTEGER, Opcodes.INTEGER}
+                : new Object[]{"[C", Opcodes.INTEGER, Opcodes.INTEGER};
+        // Only its own decryptor calls it, even in a shared holder
+        MethodNode methodVisitor = MethodBuilder.builder()
+                .name(state.decryptorName)
+                .access(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC)
+                .desc(descriptor)
+                .build()
+                .buildNode();
+
+        methodVisitor.visitCode();
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ISTORE, i);
+        Label loop = new Label();
+        Label done = new Label();
+        methodVisitor.visitLabel(loop);
+        methodVisitor.visitFrame(Opcodes.F_NEW, locals.length, locals, 0, new Object[]{});
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitVarInsn(ALOAD, 0);
+        methodVisitor.visitInsn(ARRAYLENGTH);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, done);
+        methodVisitor.visitVarInsn(ALOAD, 0);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(CALOAD);
+        methodVisitor.visitVarInsn(ILOAD, 1);
+        methodVisitor.visitIntInsn(BIPUSH, jamesBraverIsStupid);
+        methodVisitor.visitInsn(IAND);
+        methodVisitor.visitInsn(IXOR);
+        methodVisitor.visitInsn(I2C);
+        methodVisitor.visitInsn(CASTORE);
+        if (levelE) {
+            methodVisitor.visitVarInsn(ILOAD, 1);
+            methodVisitor.visitVarInsn(ILOAD, 2);
+            methodVisitor.visitInsn(IADD);
+            methodVisitor.visitVarInsn(ISTORE, 1);
+        } else {
+            methodVisitor.visitIincInsn(1, keyStep(level, 0));
+        }
+        methodVisitor.visitIincInsn(i, 1);
+        methodVisitor.visitJumpInsn(GOTO, loop);
+        methodVisitor.visitLabel(done);
+        methodVisitor.visitFrame(Opcodes.F_NEW, locals.length, locals, 0, new Object[]{});
+        methodVisitor.visitVarInsn(ALOAD, 0);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        classNode.methods.add(methodVisitor);
+    }
+
+    private static boolean hasField(ClassNode classNode, String name, String desc) {
+        for (FieldNode field : classNode.fields) {
+            if (field.name.equals(name) && field.desc.equals(desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pushes the payload at {@code stringArg} as {@code toCharArray()}, or as {@code getBytes(ISO_8859_1)}.
+     */
+    private static void visitPayload(MethodVisitor methodVisitor, int stringArg, boolean latin1) {
+        methodVisitor.visitVarInsn(ALOAD, stringArg);
+        if (latin1) {
+            methodVisitor.visitFieldInsn(GETSTATIC, "java/nio/charset/StandardCharsets", "ISO_8859_1",
+                    "Ljava/nio/charset/Charset;");
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "getBytes",
+                    "(Ljava/nio/charset/Charset;)[B", false);
+        } else {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false);
+        }
+    }
+
+    /**
+     * Returns the string made of the array at {@code local}, interned like the original decryptor of the level.
+     */
+    private void visitResult(MethodVisitor methodVisitor, int local, boolean latin1) {
+        methodVisitor.visitTypeInsn(NEW, "java/lang/String");
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitVarInsn(ALOAD, local);
+        if (latin1) {
+            methodVisitor.visitFieldInsn(GETSTATIC, "java/nio/charset/StandardCharsets", "ISO_8859_1",
+                    "Ljava/nio/charset/Charset;");
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>",
+                    "([BLjava/nio/charset/Charset;)V", false);
+        } else {
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+        }
+        // Level 10's own decryptor doesn't intern
+        if (config.getLevel() != dashO_e) {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
+        }
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+    }
+
+    /**
+     * @return whether call sites may take the Latin-1 decryptor, see {@link Config#isLatin1()}
+     */
+    private boolean usesLatin1() {
+        return config.isLatin1() && config.getLevel() != dashO_d;
+    }
+
+    /**
+     * @return call of the Latin-1 decryptor if {@code plain} fits it, of the char one otherwise
+     */
+    private MethodInsnNode decryptCall(ClassState state, String plain) {
+        if (takesLatin1(plain)) {
+            state.latin1Used = true;
+        }
+        return pendingDecryptCall(state, plain);
+    }
+
+    /**
+     * Same call as {@link #decryptCall(ClassState, String)}, without marking the Latin-1 decryptor as needed: for a
+     * call site the {@link DashOCodeBudget} may still refuse, marked by the caller once it is placed.
+     */
+    private MethodInsnNode pendingDecryptCall(ClassState state, String plain) {
+        if (!takesLatin1(plain)) {
+            return state.decryptCall();
+        }
+        return new MethodInsnNode(INVOKESTATIC, state.decryptorOwner, state.decryptorTarget,
+                latin1Descriptor(state.descriptor), state.decryptorItf);
+    }
+
+    private boolean takesLatin1(String plain) {
+        return usesLatin1() && isLatin1(plain);
+    }
+
+    /**
+     * Keys never exceed 95, so a plain string that fits Latin-1 encrypts to one that does as well.
+     */
+    private static boolean isLatin1(String plain) {
+        for (int i = 0; i < plain.length(); i++) {
+            if (plain.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code descriptor} with a {@code short} start key, the keys of every level fit one
+     */
+    private static String latin1Descriptor(String descriptor) {
+        return descriptor.replaceFirst("I", "S");
+    }
+
+    /**
+     * Injects the overload of the decryptor that takes a Latin-1 payload, skipping the char round trip on both
+     * ends: compact strings copy their bytes out and back in, where {@code toCharArray()} and {@code new String(char[])}
+     * inflate and compress them.
+     * <pre>
+     * static String decrypt(String s, short key) {
+     *     byte[] bytes = s.getBytes(ISO_8859_1);
+     *     for (int i = 0, k = key + shift; i &lt; bytes.length; i++, k += step) bytes[i] ^= k &amp; 95;
+     *     return new String(bytes, ISO_8859_1).intern();
+     * }
+     * </pre>
+     * With {@link Config#isKeystream()} the loop reads the keystream table instead.
+     *
+     * @param state the class to inject into
+     */
+    private void injectLatin1DecryptMethod(ClassState state) {
+        ClassNode classNode = state.classNode;
+        String descriptor = latin1Descriptor(state.descriptor);
+        for (MethodNode existingMethod : classNode.methods) {
+            if (existingMethod.name.equals(state.decryptorName) && existingMethod.desc.equals(descriptor)) {
+                return;
+            }
+        }
+        MethodNode methodVisitor = MethodBuilder.builder()
+                .name(state.decryptorName)
+                .access(state.decryptorAccess | ACC_SYNTHETIC)
+                .desc(descriptor)
+                .build()
+                .buildNode();
+        if (usesKeystream(classNode)) {
+            visitKeystreamDecrypt(state, methodVisitor, true);
+            classNode.methods.add(methodVisitor);
+            return;
+        }
+
+        int level = config.getLevel();
+        boolean levelE = level == dashO_e;
+        int stringArg = levelE ? 2 : 0;
+        int bytes = levelE ? 3 : 2;
+        int key = bytes + 1;
+        int i = bytes + 2;
+
+        methodVisitor.visitCode();
+        visitPayload(methodVisitor, stringArg, true);
+        methodVisitor.visitVarInsn(ASTORE, bytes);
+        methodVisitor.visitVarInsn(ILOAD, levelE ? 0 : 1);
+        if (keyShift(level) != 0) {
+            visitInt(methodVisitor, keyShift(level));
+            methodVisitor.visitInsn(IADD);
+        }
+        methodVisitor.visitVarInsn(ISTORE, key);
+        methodVisitor.visitInsn(ICONST_0);
+        methodVisitor.visitVarInsn(ISTORE, i);
+        Label loop = new Label();
+        Label done = new Label();
+        methodVisitor.visitLabel(loop);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitVarInsn(ALOAD, bytes);
+        methodVisitor.visitInsn(ARRAYLENGTH);
+        methodVisitor.visitJumpInsn(IF_ICMPGE, done);
+        methodVisitor.visitVarInsn(ALOAD, bytes);
+        methodVisitor.visitVarInsn(ILOAD, i);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(BALOAD);
+        methodVisitor.visitVarInsn(ILOAD, key);
+        methodVisitor.visitIntInsn(BIPUSH, jamesBraverIsStupid);
+        methodVisitor.visitInsn(IAND);
+        methodVisitor.visitInsn(IXOR);
+        methodVisitor.visitInsn(I2B);
+        methodVisitor.visitInsn(BASTORE);
+        if (levelE) {
+            // Level 10 steps by its second argument
+            methodVisitor.visitVarInsn(ILOAD, key);
+            methodVisitor.visitVarInsn(ILOAD, 1);
+            methodVisitor.visitInsn(IADD);
+            methodVisitor.visitVarInsn(ISTORE, key);
+        } else {
+            methodVisitor.visitIincInsn(key, keyStep(level, 0));
+        }
+        methodVisitor.visitIincInsn(i, 1);
+        methodVisitor.visitJumpInsn(GOTO, loop);
+        methodVisitor.visitLabel(done);
+        visitResult(methodVisitor, bytes, true);
+        classNode.methods.add(methodVisitor);
+    }
+
+    /**
+     * @return start key of the next string
+     */
+    private static int nextKey(ClassState state) {
+        return state.random == null ? MathUtil.randomInt('\u3040', '\u309f') : state.random.nextInt('\u3040', '\u309f');
+    }
+
+    /**
+     * @return level 10 key step of the next string
+     */
+    private int nextStep(ClassState state) {
+        if (keystreamStep != 0) {
+            return keystreamStep;
+        }
+        return state.random == null ? MathUtil.randomInt(64, 89) : state.random.nextInt(64, 89);
+    }
+
+    /**
+     * Derives an independent generator from {@link Config#getSeed()} and {@code key}, so every class and method
+     * draws the same keys whatever ran before it and on whichever thread.
+     *
+     * @return the generator, {@code null} unless the config is seeded
+     */
+    private SplittableRandom seeded(String... key) {
+        if (!config.isSeeded()) {
+            return null;
+        }
+        // FNV-1a over the parts, each closed by a value no char can take
+        long hash = 0xcbf29ce484222325L ^ config.getSeed();
+        for (String part : key) {
+            for (int i = 0; i < part.length(); i++) {
+                hash = (hash ^ part.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0x10000) * 0x100000001b3L;
+        }
+        return new SplittableRandom(hash);
+    }
+
+    /**
+     * What the XOR levels add to the start key before the first char.
+     */
+    private static int keyShift(int level) {
+        return level == dashO_c ? 5 : 0;
+    }
+
+    /**
+     * How far the XOR levels advance the key per char, {@code n2} being level 10's per-string step.
+     */
+    private static int keyStep(int level, int n2) {
+        return level == dashO_c ? 7 : level == dashO_e ? n2 : 1;
+    }
+
+    /**
+     * @return {@code x} with {@code step * x == 1} modulo 128, {@code step} odd
+     */
+    private static int inverse(int step) {
+        int inverse = 1;
+        while ((step * inverse & (KEYSTREAM_PERIOD - 1)) != 1) {
+            inverse += 2;
+        }
+        return inverse;
+    }
+
+    /**
+     * Two periods of the XOR levels' keystream {@code (key + i * step) & 95}, so any 128 consecutive keys are one
+     * contiguous slice.
+     */
+    static char[] keystream(int key, int step) {
+        char[] keys = new char[2 * KEYSTREAM_PERIOD];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (char) (key + i * step & jamesBraverIsStupid);
+        }
+        return keys;
+    }
+
+    private static boolean vectorEncode() {
+        try {
+            return DashOVectorEncoder.AVAILABLE;
+        } catch (LinkageError e) {
+            // jdk.incubator.vector not added to this JVM
+            return false;
+        }
+    }
+
+    /**
+     * Injects the memoizing front of the decryptor plus its slot array.
+     * <pre>
+     * private static final String[] slots = new String[n];
+     * private static final VarHandle slotsHandle = MethodHandles.arrayElementVarHandle(String[].class);
+     *
+     * static String decrypt(..., int slot) {
+     *     String s = slots[slot];
+     *     if (s != null) return s;
+     *     s = decrypt(...);
+     *     String witness = (String) slotsHandle.compareAndExchange(slots, slot, null, s);
+     *     return witness == null ? s : witness;
+     * }
+     * </pre>
+     * The fast path is a plain array load. That is safe without a fence, since {@link String} is immutable
+     * and therefore safely published by any racy read. First access by several threads at once decrypts
+     * more than once, but the CAS makes them all return the same instance.
+     *
+     * @param state the class to inject into, with at least one slot assigned
+     */
+    private void injectCachedDecryptMethod(ClassState state) {
+        ClassNode classNode = state.classNode;
+        String owner = classNode.name;
+        String name = state.decryptorName;
+
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                name, "[Ljava/lang/String;", null, null));
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                name, "L" + VAR_HANDLE + ";", null, null));
+
+        InsnList init = new InsnList();
+        init.add(Myj2cASMUtils.pushInt(state.slots));
+        init.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+        init.add(new FieldInsnNode(PUTSTATIC, owner, name, "[Ljava/lang/String;"));
+        init.add(new LdcInsnNode(Type.getType("[Ljava/lang/String;")));
+        init.add(new MethodInsnNode(INVOKESTATIC, "java/lang/invoke/MethodHandles", "arrayElementVarHandle",
+                "(Ljava/lang/Class;)L" + VAR_HANDLE + ";", false));
+        init.add(new FieldInsnNode(PUTSTATIC, owner, name, "L" + VAR_HANDLE + ";"));
+        staticInitializer(classNode).instructions.insert(init);
+
+        MethodBuilder methodBuilder = MethodBuilder.builder()
+                .name(name)
+                .access(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC)
+                .desc(state.cachedDescriptor())
+                .build();
+        MethodNode methodVisitor = methodBuilder.buildNode();
+
+        Type[] args = Type.getArgumentTypes(state.descriptor);
+        int slot = 0;
+        for (Type arg : args) {
+            slot += arg.getSize();
+        }
+        int decrypted = slot + 1;
+
+        methodVisitor.visitCode();
+        methodVisitor.visitFieldInsn(GETSTATIC, owner, name, "[Ljava/lang/String;");
+        methodVisitor.visitVarInsn(ILOAD, slot);
+        methodVisitor.visitInsn(AALOAD);
+        methodVisitor.visitInsn(DUP);
+        Label miss = new Label();
+        methodVisitor.visitJumpInsn(IFNULL, miss);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitLabel(miss);
+        methodVisitor.visitInsn(POP);
+        int local = 0;
+        for (Type arg : args) {
+            methodVisitor.visitVarInsn(arg.getOpcode(ILOAD), local);
+            local += arg.getSize();
+        }
+        state.decryptCall().accept(methodVisitor);
+        methodVisitor.visitVarInsn(ASTORE, decrypted);
+        methodVisitor.visitFieldInsn(GETSTATIC, owner, name, "L" + VAR_HANDLE + ";");
+        methodVisitor.visitFieldInsn(GETSTATIC, owner, name, "[Ljava/lang/String;");
+        methodVisitor.visitVarInsn(ILOAD, slot);
+        methodVisitor.visitInsn(ACONST_NULL);
+        methodVisitor.visitVarInsn(ALOAD, decrypted);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, VAR_HANDLE, "compareAndExchange",
+                "([Ljava/lang/String;ILjava/lang/String;Ljava/lang/String;)Ljava/lang/String;", false);
+        methodVisitor.visitInsn(DUP);
+        Label lost = new Label();
+        methodVisitor.visitJumpInsn(IFNONNULL, lost);
+        methodVisitor.visitInsn(POP);
+        methodVisitor.visitVarInsn(ALOAD, decrypted);
+        methodVisitor.visitLabel(lost);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        classNode.methods.add(methodVisitor);
+    }
+
+    /**
+     * Injects the counting overload of a diagnostics build, which bumps the call site's counter before it
+     * decrypts:
+     * <pre>
+     * static String decrypt(..., int id) {
+     *     DashOCounters.hit(id);
+     *     return decrypt(...);
+     * }
+     * </pre>
+     *
+     * @param state the class to inject into
+     */
+    private void injectCountingDecryptMethod(ClassState state) {
+        MethodNode methodVisitor = MethodBuilder.builder()
+                .name(state.decryptorName)
+                .access(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC)
+                .desc(state.cachedDescriptor())
+                .build()
+                .buildNode();
+
+        methodVisitor.visitCode();
+        Type[] args = Type.getArgumentTypes(state.descriptor);
+        int slot = 0;
+        for (Type arg : args) {
+            slot += arg.getSize();
+        }
+        methodVisitor.visitVarInsn(ILOAD, slot);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, counters.getName(), "hit", DashOCallSiteCounters.HIT_DESCRIPTOR,
+                false);
+        int local = 0;
+        for (Type arg : args) {
+            methodVisitor.visitVarInsn(arg.getOpcode(ILOAD), local);
+            local += arg.getSize();
+        }
+        state.decryptCall().accept(methodVisitor);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        state.classNode.methods.add(methodVisitor);
+    }
+
+    /**
+     * Injects the {@link CallSite#CONDY} bootstrap, an overload of the decryptor that takes the usual
+     * {@code Lookup}, name and type first and passes its static arguments on:
+     * <pre>
+     * static String decrypt(MethodHandles.Lookup lookup, String name, Class&lt;?&gt; type, ...) {
+     *     return decrypt(...);
+     * }
+     * </pre>
+     * The JVM runs it once per constant and keeps the result in the constant pool.
+     *
+     * @param state the class to inject into
+     */
+    private void injectBootstrapMethod(ClassState state) {
+        ClassNode classNode = state.classNode;
+        MethodNode methodVisitor = MethodBuilder.builder()
+                .name(state.decryptorName)
+                .access(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC)
+                .desc(state.bootstrapDescriptor())
+                .build()
+                .buildNode();
+
+        methodVisitor.visitCode();
+        int local = 3;
+        for (Type arg : Type.getArgumentTypes(state.descriptor)) {
+            methodVisitor.visitVarInsn(arg.getOpcode(ILOAD), local);
+            local += arg.getSize();
+        }
+        state.decryptCall().accept(methodVisitor);
+        methodVisitor.visitInsn(ARETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        classNode.methods.add(methodVisitor);
+    }
+
+    /**
+     * Injects the {@link CallSite#PACKED} blob table: {@code private static final String[]} named after the
+     * decryptor, each element one blob decrypted in a single decryptor call at the head of {@code <clinit>}.
+     *
+     * @param state the class to inject into, with at least one string packed
+     */
+    private void injectPackedBlobs(ClassState state) {
+        ClassNode classNode = state.classNode;
+        state.blobs.add(state.blob.toString());
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                state.decryptorName, "[Ljava/lang/String;", null, null));
+
+        InsnList init = new InsnList();
+        init.add(Myj2cASMUtils.pushInt(state.blobs.size()));
+        init.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+        for (int i = 0; i < state.blobs.size(); i++) {
+            int b = nextKey(state);
+            int c = nextStep(state);
+            init.add(new InsnNode(DUP));
+            init.add(Myj2cASMUtils.pushInt(i));
+            init.add(decryptArguments(b, c, autoEncode(config.getLevel(), b, c, state.blobs.get(i))));
+            init.add(decryptCall(state, state.blobs.get(i)));
+            init.add(new InsnNode(AASTORE));
+        }
+        init.add(new FieldInsnNode(PUTSTATIC, classNode.name, state.decryptorName, "[Ljava/lang/String;"));
+        staticInitializer(classNode).instructions.insert(init);
+    }
+
+    /**
+     * Injects the table filled by {@link CallSite#EAGER}: {@code private static final String[]} named after the
+     * decryptor, built at the head of {@code <clinit>} by decrypting every collected constant once.
+     * The estimated cost is added to {@link #getInitCosts()}.
+     *
+     * @param state the class to inject into, with at least one constant collected
+     */
+    private void injectEagerTable(ClassState state) {
+        ClassNode classNode = state.classNode;
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC,
+                state.decryptorName, "[Ljava/lang/String;", null, null));
+
+        InsnList init = new InsnList();
+        init.add(Myj2cASMUtils.pushInt(state.slots));
+        init.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+        init.add(state.eagerInit);
+        init.add(new FieldInsnNode(PUTSTATIC, classNode.name, state.decryptorName, "[Ljava/lang/String;"));
+        staticInitializer(classNode).instructions.insert(init);
+
+        int slash = classNode.name.lastIndexOf('/');
+        String pkg = slash == -1 ? "" : classNode.name.substring(0, slash);
+        initCosts.computeIfAbsent(pkg, key -> new InitCost()).record(state.slots, state.eagerChars, state.eagerNanos);
+    }
+
+    /**
+     * @return estimated eager {@code <clinit>} cost per package (internal name, {@code ""} for the default one)
+     */
+    public Map<String, InitCost> getInitCosts() {
+        return Collections.unmodifiableMap(initCosts);
+    }
+
+    /**
+     * Logs {@link #getInitCosts()}, one line per package.
+     */
+    public void logInitCosts() {
+        initCosts.forEach((pkg, cost) -> Ambien.logger.info(
+                "DashO eager init cost of " + (pkg.isEmpty() ? "<default>" : pkg) + ": " + cost
+        ));
+    }
+
+    /**
+     * Finds the class initializer, creating an empty one if the class has none.
+     * Callers insert their code at the head so it runs before any original static code.
+     */
+    private static MethodNode staticInitializer(ClassNode classNode) {
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals("<clinit>")) {
+                return method;
+            }
+        }
+        MethodNode clinit = new MethodNode(ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.instructions.add(new InsnNode(RETURN));
+        classNode.methods.add(clinit);
+        return clinit;
+    }
+
     // https://github.com/GenericException/SkidSuite
     // Skidded from dashO samples
 
@@ -568,7 +2291,25 @@ public class DashOStringEncryption implements Opcodes {
      * @return encoded/decoded content
      */
     public static String autoEncode(int var1, int n2, String var0) {
-        switch (StringEncryptionManager.dashO_level.getValue()) {
+        return autoEncode(StringEncryptionManager.dashO_level.getValue(), var1, n2, var0);
+    }
+
+    /**
+     * Same as {@link #autoEncode(int, int, String)} for an explicit level instead of the global setting.
+     *
+     * @param level DashO level
+     * @param var1  default key
+     * @param n2    step-in key
+     * @param var0  input content(encoded or decoded)
+     * @return encoded/decoded content
+     */
+    public static String autoEncode(int level, int var1, int n2, String var0) {
+        if (VECTOR_ENCODE && level != dashO_d && var0.length() >= DashOVectorEncoder.THRESHOLD) {
+            char[] chars = var0.toCharArray();
+            DashOVectorEncoder.xor(chars, var1 + keyShift(level), keyStep(level, n2));
+            return String.valueOf(chars).intern();
+        }
+        switch (level) {
             case dashO_a: {
                 int var10001;
                 char[] var10003 = var0.toCharArray();
@@ -643,4 +2384,521 @@ public class DashOStringEncryption implements Opcodes {
                 throw new RuntimeException("Unexpected value??!!");
         }
     }
+
+    /**
+     * Immutable settings of one encryption run.
+     */
+    public static final class Config {
+        private final int level;
+        private final boolean dictionaryNames;
+        private final CallSite callSite;
+        private final SharedScope sharedScope;
+        private final String sharedName;
+        private final HotnessProfile hotnessProfile;
+        private final long hotThreshold;
+        private final boolean hotPlain;
+        private final DashOMetrics metrics;
+        private final String callSiteCounters;
+        private final boolean keystream;
+        private final boolean latin1;
+        private final boolean scratch;
+        private final boolean compact;
+        private final boolean seeded;
+        private final long seed;
+        private final String descriptor;
+
+        private Config(Builder builder) {
+            this.level = builder.level;
+            this.dictionaryNames = builder.dictionaryNames;
+            this.callSite = builder.callSite;
+            this.sharedScope = builder.sharedScope;
+            this.sharedName = builder.sharedName;
+            this.hotnessProfile = builder.hotnessProfile;
+            this.hotThreshold = builder.hotThreshold;
+            this.hotPlain = builder.hotPlain;
+            this.metrics = builder.metrics;
+            this.callSiteCounters = builder.callSiteCounters;
+            this.keystream = builder.keystream;
+            this.latin1 = builder.latin1;
+            this.scratch = builder.scratch;
+            this.compact = builder.compact;
+            this.seeded = builder.seeded;
+            this.seed = builder.seed;
+            switch (level) {
+                case dashO_a:
+                case dashO_b:
+                case dashO_c:
+                case dashO_d:
+                    this.descriptor = descriptor_1;
+                    break;
+                case dashO_e:
+                    this.descriptor = descriptor_10;
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unexpected dashO string encryption level: " + level);
+            }
+        }
+
+        /**
+         * Snapshot of the current {@link StringEncryptionManager} settings.
+         */
+        public static Config fromSettings() {
+            return builder()
+                    .level(StringEncryptionManager.dashO_level.getValue())
+                    .dictionaryNames(StringEncryptionManager.dashO_name.isEnabled())
+                    .build();
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return whether decryptors are named after {@link #dashOMethodNames} instead of random names
+         */
+        public boolean isDictionaryNames() {
+            return dictionaryNames;
+        }
+
+        public CallSite getCallSite() {
+            return callSite;
+        }
+
+        public SharedScope getSharedScope() {
+            return sharedScope;
+        }
+
+        /**
+         * @return simple name of the shared decryptor holder class
+         */
+        public String getSharedName() {
+            return sharedName;
+        }
+
+        /**
+         * @return execution counts of the call sites, {@code null} to treat every string alike
+         */
+        public HotnessProfile getHotnessProfile() {
+            return hotnessProfile;
+        }
+
+        public long getHotThreshold() {
+            return hotThreshold;
+        }
+
+        /**
+         * @return whether hot strings stay unencrypted, otherwise they become {@link CallSite#CONDY} constants
+         */
+        public boolean isHotPlain() {
+            return hotPlain;
+        }
+
+        /**
+         * @return where per-class figures go, {@code null} to collect none
+         */
+        public DashOMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * @return internal name of the diagnostics counter class, {@code null} for a normal build
+         */
+        public String getCallSiteCounters() {
+            return callSiteCounters;
+        }
+
+        /**
+         * @return whether decryptors XOR against a precomputed keystream table, see {@link Builder#keystream}
+         */
+        public boolean isKeystream() {
+            return keystream;
+        }
+
+        /**
+         * @return whether Latin-1 strings decrypt through a {@code byte[]} overload, see {@link Builder#latin1}
+         */
+        public boolean isLatin1() {
+            return latin1;
+        }
+
+        /**
+         * @return whether decryptors work in a reused per-thread buffer, see {@link Builder#scratch}
+         */
+        public boolean isScratch() {
+            return scratch;
+        }
+
+        /**
+         * @return whether decryptors are emitted small enough for the JIT to inline, see {@link Builder#compact}
+         */
+        public boolean isCompact() {
+            return compact;
+        }
+
+        /**
+         * @return whether keys and names derive from {@link #getSeed()}, see {@link Builder#seed}
+         */
+        public boolean isSeeded() {
+            return seeded;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return descriptor of the injected decryptor for this level
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * @return every setting that shapes a class's output, for {@link DashOClassCache} keys
+         */
+        String fingerprint() {
+            return "dashO:" + level + ":" + dictionaryNames + ":" + callSite + ":" + sharedScope + ":" + sharedName
+                    + ":" + keystream + ":" + latin1 + ":" + scratch + ":" + compact + ":" + (seeded ? Long.toString(seed) : "random")
+                    + ":" + Ambien.get.theNamingNaming;
+        }
+
+        public static final class Builder {
+            private int level = dashO_a;
+            private boolean dictionaryNames;
+            private CallSite callSite = CallSite.DIRECT;
+            private SharedScope sharedScope = SharedScope.NONE;
+            private String sharedName = "DashO";
+            private HotnessProfile hotnessProfile;
+            private long hotThreshold = Long.MAX_VALUE;
+            private boolean hotPlain;
+            private DashOMetrics metrics;
+            private String callSiteCounters;
+            private boolean keystream;
+            private boolean latin1;
+            private boolean scratch;
+            private boolean compact;
+            private boolean seeded;
+            private long seed;
+
+            private Builder() {
+            }
+
+            public Builder level(int level) {
+                this.level = level;
+                return this;
+            }
+
+            public Builder dictionaryNames(boolean dictionaryNames) {
+                this.dictionaryNames = dictionaryNames;
+                return this;
+            }
+
+            public Builder callSite(CallSite callSite) {
+                this.callSite = callSite;
+                return this;
+            }
+
+            /**
+             * @param sharedScope where call sites find the decryptor
+             * @param sharedName  simple name of the holder class, in the default package for
+             *                    {@link SharedScope#JAR}; followed by a number if a class
+             *                    {@link DashOStringEncryption#reserveClassNames reserved} by the input has it
+             */
+            public Builder sharedDecryptor(SharedScope sharedScope, String sharedName) {
+                this.sharedScope = sharedScope;
+                this.sharedName = sharedName;
+                return this;
+            }
+
+            /**
+             * Strings whose statement ran at least {@code threshold} times in {@code profile} skip the per-call
+             * decryptor: they become {@link CallSite#CONDY} constants, or stay plain if {@code plain} is set or the
+             * class predates Java 11.
+             */
+            public Builder hotnessProfile(HotnessProfile profile, long threshold, boolean plain) {
+                this.hotnessProfile = profile;
+                this.hotThreshold = threshold;
+                this.hotPlain = plain;
+                return this;
+            }
+
+            /**
+             * Measures every class into {@code metrics}. Costs two extra scans per class and keeps
+             * {@link DashOVisitorEngine} on its tree path.
+             */
+            public Builder metrics(DashOMetrics metrics) {
+                this.metrics = metrics;
+                return this;
+            }
+
+            /**
+             * Diagnostics build: every call site becomes {@link CallSite#DIRECT} and counts its executions in the
+             * class {@code counterClass}, see {@link DashOStringEncryption#getCallSiteCounters()}. Not for release
+             * builds, each decryption pays for a {@code LongAdder} increment.
+             *
+             * @param counterClass internal name of the generated counter class, {@code null} to count nothing
+             */
+            public Builder callSiteCounters(String counterClass) {
+                this.callSiteCounters = counterClass;
+                return this;
+            }
+
+            /**
+             * Decryptors of the XOR levels (all but 7) read their keys from a 256-char table filled on first use,
+             * and their loop becomes a plain XOR of two arrays the JIT can vectorize. Level 10 then draws one odd
+             * key step per engine instead of one per string. Interfaces keep the original decryptor.
+             */
+            public Builder keystream(boolean keystream) {
+                this.keystream = keystream;
+                return this;
+            }
+
+            /**
+             * Strings whose chars all fit Latin-1, most of them, call an overload of the decryptor that XORs
+             * {@code getBytes(ISO_8859_1)} and returns {@code new String(bytes, ISO_8859_1)}: with compact strings
+             * that is half the transient allocation of the char path and no inflate/compress round trip. Level 7
+             * keeps the char path.
+             */
+            public Builder latin1(boolean latin1) {
+                this.latin1 = latin1;
+                return this;
+            }
+
+            /**
+             * Char decryptors copy the payload into a scratch buffer taken from a small striped pool instead of
+             * {@code toCharArray()}, so a warm decrypt allocates the returned string only. The pool holds
+             * buffers up to {@value DashOStringEncryption#SCRATCH_CAP} chars and never pins or grows per thread,
+             * virtual ones included. Keystream, Latin-1 and level 7 decryptors, and interfaces, are unchanged.
+             */
+            public Builder scratch(boolean scratch) {
+                this.scratch = scratch;
+                return this;
+            }
+
+            /**
+             * Decryptors of the XOR levels (all but 7) become a call of a plain counted loop over the chars
+             * instead of the hand-ported DashO bytecode. Both stay under {@code -XX:MaxInlineSize}, so C2
+             * inlines them even at call sites it doesn't consider hot, unrolls the loop there, and a method with
+             * many strings runs out of its inlining budget ({@code -XX:DesiredMethodLimit}) much later.
+             * Keystream and scratch decryptors take precedence. See {@link DashOInliningCheck}.
+             */
+            public Builder compact(boolean compact) {
+                this.compact = compact;
+                return this;
+            }
+
+            /**
+             * Reproducible builds: decryptor names and keys derive from {@code seed} and the class name, method
+             * and position of each string instead of shared random generators, so a class comes out byte for byte
+             * the same on 1 thread or 64, in any class order, and {@link DashOClassCache} hits across builds.
+             * Seeded names outside the dictionary are plain letters instead of the configured naming scheme.
+             */
+            public Builder seed(long seed) {
+                this.seeded = true;
+                this.seed = seed;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+
+    /**
+     * How a rewritten call site gets its plain string back.
+     */
+    public enum CallSite {
+        /**
+         * Decrypt on every execution, the original DashO behaviour.
+         */
+        DIRECT,
+        /**
+         * Decrypt once per call site into a per-class slot array, later executions are an array load.
+         * Falls back to {@link #DIRECT} for interfaces and classes older than Java 9.
+         */
+        CACHED,
+        /**
+         * Decrypt every constant of the class up front in {@code <clinit>}, call sites become
+         * {@code GETSTATIC}/index/{@code AALOAD}. Trades class-init time for zero per-call work, see
+         * {@link DashOStringEncryption#getInitCosts()}. Falls back to {@link #DIRECT} for interfaces.
+         */
+        EAGER,
+        /**
+         * Replace the whole call site with one {@code LDC} of a {@code ConstantDynamic} bootstrapped by the
+         * decryptor, keys and payload are its static arguments. The JVM resolves it once and the JIT sees a
+         * true constant, and each site shrinks to 3 bytes. Falls back to {@link #DIRECT} below Java 11.
+         */
+        CONDY,
+        /**
+         * Concatenate every string of the class into one blob (more if it passes the 64K constant limit),
+         * decrypted in one keystream pass in {@code <clinit>}. Call sites become a {@code substring} by offset
+         * and length, concatenated for a literal split over blobs, and the class keeps one constant pool entry per
+         * blob instead of one per string. Results are not interned. Falls back to {@link #DIRECT} for interfaces.
+         */
+        PACKED
+    }
+
+    /**
+     * Where call sites find the decryptor.
+     */
+    public enum SharedScope {
+        /**
+         * Every class with strings carries its own private decryptor.
+         */
+        NONE,
+        /**
+         * One synthetic public holder class for the whole jar, so the decryptor is loaded, verified and
+         * JIT-compiled once. Holders come from {@link DashOStringEncryption#getSharedDecryptors()}.
+         */
+        JAR,
+        /**
+         * One synthetic package-private holder class per package.
+         */
+        PACKAGE
+    }
+
+    /**
+     * Class-init cost added by {@link CallSite#EAGER}, summed over the classes of one package.
+     * {@code nanos} is the build-time cost of running the same cipher over the same constants, a cold
+     * interpreter at startup will take longer but scales the same way.
+     */
+    public static final class InitCost {
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder constants = new LongAdder();
+        private final LongAdder chars = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void record(int constants, long chars, long nanos) {
+            this.classes.increment();
+            this.constants.add(constants);
+            this.chars.add(chars);
+            this.nanos.add(nanos);
+        }
+
+        public long getClasses() {
+            return classes.sum();
+        }
+
+        public long getConstants() {
+            return constants.sum();
+        }
+
+        public long getChars() {
+            return chars.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return getClasses() + " classes, " + getConstants() + " constants, "
+                    + getChars() + " chars, ~" + getNanos() / 1000 + "us";
+        }
+    }
+
+    /**
+     * Mutable state of a single class, never shared between threads.
+     */
+    static final class ClassState {
+        private final ClassNode classNode;
+        private final String decryptorName;
+        private final String descriptor;
+        private boolean stringProcessed;
+        /**
+         * The decryptor every rewrite calls: by default {@link #decryptorName} in this class, otherwise the one
+         * in a shared holder. Wrappers, bootstraps and tables always use {@link #decryptorName} in this class.
+         */
+        private String decryptorOwner;
+        private String decryptorTarget;
+        private boolean decryptorItf;
+        private int decryptorAccess = ACC_PRIVATE | ACC_STATIC;
+        private CallSite callSite;
+        /**
+         * Cache or table slots handed out so far, one per rewritten call site.
+         */
+        private int slots;
+        /**
+         * {@link CallSite#EAGER} table fill, runs with the table on the stack.
+         */
+        private final InsnList eagerInit = new InsnList();
+        private long eagerChars;
+        private long eagerNanos;
+        private boolean bootstrapNeeded;
+        private int ldcStrings;
+        private int indyStrings;
+        /**
+         * Method being processed (name and descriptor), the original offset of its statement ({@code -1} if
+         * unknown) and the number of sites counted in it so far, name counted call sites.
+         */
+        private String method;
+        private int bci;
+        private int sites;
+        private boolean counted;
+        private boolean latin1Used;
+        /**
+         * Room left in the method being processed, and the strings it had no room for.
+         */
+        private DashOCodeBudget budget;
+        private int plain;
+        /**
+         * Room left in {@code <clinit>} for the {@link CallSite#EAGER} or {@link CallSite#PACKED} fill, also the
+         * budget of {@code <clinit>} itself while it is processed; {@code null} in the other modes.
+         */
+        private DashOCodeBudget initBudget;
+        private DashOMetrics.ClassMetrics metrics;
+        /**
+         * Seeded draws of the class header and of the method being processed, {@code null} unless seeded.
+         */
+        private SplittableRandom classRandom;
+        private SplittableRandom random;
+        /**
+         * {@link CallSite#PACKED} state: finished blobs, the one being filled, and {blob, start, end} per piece of
+         * each literal.
+         */
+        private final List<String> blobs = new ArrayList<>();
+        private final StringBuilder blob = new StringBuilder();
+        private int blobBytes;
+        private int blobFills;
+        private final Map<String, int[][]> packed = new HashMap<>();
+
+        private ClassState(ClassNode classNode, String decryptorName, String descriptor) {
+            this.classNode = classNode;
+            this.decryptorName = decryptorName;
+            this.descriptor = descriptor;
+            this.decryptorOwner = classNode.name;
+            this.decryptorTarget = decryptorName;
+            this.decryptorItf = (classNode.access & ACC_INTERFACE) != 0;
+        }
+
+        private MethodInsnNode decryptCall() {
+            return new MethodInsnNode(INVOKESTATIC, decryptorOwner, decryptorTarget, descriptor, decryptorItf);
+        }
+
+        /**
+         * @return {@link #descriptor} with a trailing {@code int} slot or call site id argument
+         */
+        private String cachedDescriptor() {
+            return descriptor.replace(")", "I)");
+        }
+
+        /**
+         * @return {@link #descriptor} behind the bootstrap {@code Lookup}, name and type parameters
+         */
+        private String bootstrapDescriptor() {
+            return BOOTSTRAP_PREFIX + descriptor.substring(1);
+        }
+
+        private Handle bootstrapHandle() {
+            return new Handle(H_INVOKESTATIC, classNode.name, decryptorName, bootstrapDescriptor(),
+                    (classNode.access & ACC_INTERFACE) != 0);
+        }
+    }
 }
@@ -0,0 +1,253 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import obfuscator.transform.impl.data.DashO320StringEncryption;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Build-time throughput of {@link DashOStringEncryption#apply(ClassNode)} and
+ * {@link DashO320StringEncryption#transformClass(ClassNode, String, java.util.function.Predicate)} over a
+ * synthetic corpus of {@code classes x methods x strings} LDCs, plus one {@code makeConcatWithConstants} per
+ * method. Every run gets a freshly generated corpus and the generation is not timed.
+ *
+ * <p>Class file drivers are measured twice, through a tree round trip and through {@link DashOVisitorEngine}.
+ * Prints one line per engine and thread count with classes/s, strings/s and peak heap, followed by the
+ * isolated cost of the steps the DashO engine repeats per method or class: {@link DashOCodeBudget#of},
+ * {@code InsnList.toArray}, {@link DashOStringEncryption#autoEncode(int, int, int, String)} and decryptor
+ * injection. Output is tab separated so CI can diff it against a previous run.
+ *
+ * <pre>
+ * java ... DashOThroughputHarness [classes] [methods] [strings] [threads] [level]
+ * </pre>
+ *
+ * @author a114mc
+ */
+public final class DashOThroughputHarness implements Opcodes {
+
+    private static final Handle CONCAT_FACTORY = new Handle(H_INVOKESTATIC,
+            "java/lang/invoke/StringConcatFactory", "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                    + "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+
+    private final int classes;
+    private final int methods;
+    private final int strings;
+
+    private DashOThroughputHarness(int classes, int methods, int strings) {
+        this.classes = classes;
+        this.methods = methods;
+        this.strings = strings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int methods = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int strings = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int level = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        DashOThroughputHarness harness = new DashOThroughputHarness(classes, methods, strings);
+        DashOStringEncryption dashO = new DashOStringEncryption(DashOStringEncryption.Config.builder()
+                .level(level)
+                .dictionaryNames(true)
+                .build());
+        DashO320StringEncryption dashO320 = new DashO320StringEncryption(null);
+
+        System.out.println("engine\tthreads\tclasses/s\tstrings/s\tpeak heap MB");
+        for (int threadCount : threads == 1 ? new int[]{1} : new int[]{1, threads}) {
+            harness.run("dashO-" + level, threadCount, dashO::apply);
+            harness.runBytes("dashO-" + level + "-tree", threadCount, bytes -> {
+                ClassNode classNode = new ClassNode();
+                new ClassReader(bytes).accept(classNode, ClassReader.EXPAND_FRAMES);
+                dashO.apply(classNode);
+                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+                classNode.accept(writer);
+                writer.toByteArray();
+            });
+            harness.runBytes("dashO-" + level + "-visitor", threadCount,
+                    bytes -> DashOVisitorEngine.transform(dashO, bytes));
+            harness.run("dashO320", threadCount,
+                    classNode -> dashO320.transformClass(classNode, "d", method -> false));
+        }
+
+        System.out.println();
+        System.out.println("step\tcalls\tns/call");
+        harness.isolate(dashO, level);
+    }
+
+    private void run(String engine, int threads, Consumer<ClassNode> transform) throws Exception {
+        time(engine, threads, corpus(), transform);
+    }
+
+    /**
+     * Same as {@link #run}, but on class files: read, transform and write back are all timed.
+     */
+    private void runBytes(String engine, int threads, Consumer<byte[]> transform) throws Exception {
+        List<byte[]> corpus = new ArrayList<>(classes);
+        for (ClassNode classNode : corpus()) {
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            classNode.accept(writer);
+            corpus.add(writer.toByteArray());
+        }
+        time(engine, threads, corpus, transform);
+    }
+
+    private <T> void time(String engine, int threads, List<T> corpus, Consumer<T> transform) throws Exception {
+        resetPeakHeap();
+
+        long start = System.nanoTime();
+        if (threads == 1) {
+            corpus.forEach(transform);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>(corpus.size());
+                for (T input : corpus) {
+                    futures.add(pool.submit(() -> transform.accept(input)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long totalStrings = (long) classes * methods * (strings + 1);
+        System.out.printf(Locale.ROOT, "%s\t%d\t%.0f\t%.0f\t%.1f%n", engine, threads,
+                classes / seconds, totalStrings / seconds, peakHeap() / (1024.0 * 1024.0));
+    }
+
+    private void isolate(DashOStringEncryption dashO, int level) {
+        List<ClassNode> corpus = corpus();
+        int methodCount = classes * methods;
+
+        long start = System.nanoTime();
+        int overflows = 0;
+        for (ClassNode classNode : corpus) {
+            for (MethodNode method : classNode.methods) {
+                overflows += DashOCodeBudget.of(method).isExceeded() ? 1 : 0;
+            }
+        }
+        report("codeBudget", methodCount, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        long insns = 0;
+        for (ClassNode classNode : corpus) {
+            for (MethodNode method : classNode.methods) {
+                insns += method.instructions.toArray().length;
+            }
+        }
+        report("toArray", methodCount, System.nanoTime() - start);
+
+        SplittableRandom random = new SplittableRandom(level);
+        long chars = 0;
+        start = System.nanoTime();
+        for (ClassNode classNode : corpus) {
+            for (MethodNode method : classNode.methods) {
+                for (int i = 0; i < method.instructions.size(); i++) {
+                    if (method.instructions.get(i) instanceof LdcInsnNode) {
+                        String value = (String) ((LdcInsnNode) method.instructions.get(i)).cst;
+                        chars += DashOStringEncryption.autoEncode(level,
+                                random.nextInt('\u3040', '\u309f'), random.nextInt(64, 89), value).length();
+                    }
+                }
+            }
+        }
+        report("autoEncode", (long) methodCount * strings, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (ClassNode classNode : corpus) {
+            dashO.injectDecryptMethod(classNode);
+        }
+        report("injectDecryptMethod", classes, System.nanoTime() - start);
+
+        // Keep the JIT from dropping the loops above
+        if (overflows + insns + chars == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void report(String step, long calls, long nanos) {
+        System.out.printf(Locale.ROOT, "%s\t%d\t%.1f%n", step, calls, (double) nanos / calls);
+    }
+
+    /**
+     * {@code classes} classes of {@code methods} static {@code (String, int) -> String} methods, each pushing
+     * {@code strings} distinct literals and ending in an indy concatenation of its arguments.
+     */
+    private List<ClassNode> corpus() {
+        SplittableRandom random = new SplittableRandom(42);
+        List<ClassNode> corpus = new ArrayList<>(classes);
+        for (int c = 0; c < classes; c++) {
+            ClassNode classNode = new ClassNode();
+            classNode.visit(V11, ACC_PUBLIC | ACC_SUPER, "bench/pkg" + c % 64 + "/Synthetic" + c,
+                    null, "java/lang/Object", null);
+            for (int m = 0; m < methods; m++) {
+                MethodNode method = new MethodNode(ACC_PUBLIC | ACC_STATIC, "m" + m,
+                        "(Ljava/lang/String;I)Ljava/lang/String;", null, null);
+                for (int s = 0; s < strings; s++) {
+                    method.instructions.add(new LdcInsnNode(literal(random)));
+                    method.instructions.add(new InsnNode(POP));
+                }
+                method.instructions.add(new VarInsnNode(ALOAD, 0));
+                method.instructions.add(new VarInsnNode(ILOAD, 1));
+                method.instructions.add(new InvokeDynamicInsnNode("makeConcatWithConstants",
+                        "(Ljava/lang/String;I)Ljava/lang/String;", CONCAT_FACTORY,
+                        "key \u0001 = \u0001 " + literal(random)));
+                method.instructions.add(new InsnNode(ARETURN));
+                classNode.methods.add(method);
+            }
+            corpus.add(classNode);
+        }
+        return corpus;
+    }
+
+    private static String literal(SplittableRandom random) {
+        char[] chars = new char[random.nextInt(4, 48)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) random.nextInt(' ', '\u007f');
+        }
+        return new String(chars);
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,49 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Build-time XOR of long strings for {@link DashOStringEncryption#autoEncode(int, int, int, String)}, on the
+ * {@code jdk.incubator.vector} API.
+ * <br>
+ * Kept apart so the engine only links against the incubator module when it is there: the build and the
+ * obfuscator's JVM both need {@code --add-modules jdk.incubator.vector}, otherwise this class fails to link
+ * and the engine keeps its scalar loops. The keystream is periodic in 128 chars, so two periods are laid out once
+ * and every vector reads its keys as one contiguous slice.
+ *
+ * @author a114mc
+ */
+final class DashOVectorEncoder {
+
+    /**
+     * Strings shorter than this stay on the scalar loop, the table costs more than it saves.
+     */
+    static final int THRESHOLD = 256;
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    /**
+     * {@code keys[(i & 127) + lane]} stays within two periods as long as a vector holds at most 128 chars.
+     */
+    static final boolean AVAILABLE = SPECIES.length() <= 128;
+
+    private DashOVectorEncoder() {
+    }
+
+    /**
+     * {@code chars[i] ^= (key + i * step) & 95}, in place.
+     */
+    static void xor(char[] chars, int key, int step) {
+        char[] keys = DashOStringEncryption.keystream(key, step);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(chars.length); i < upper; i += SPECIES.length()) {
+            ShortVector.fromCharArray(SPECIES, chars, i)
+                    .lanewise(VectorOperators.XOR, ShortVector.fromCharArray(SPECIES, keys, i & 127))
+                    .intoCharArray(chars, i);
+        }
+        for (; i < chars.length; i++) {
+            chars[i] ^= keys[i & 127];
+        }
+    }
+}
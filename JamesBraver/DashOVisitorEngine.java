@@ -0,0 +1,263 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass {@code ClassReader -> ClassWriter} front end of {@link DashOStringEncryption} for drivers that hold
+ * class files as bytes.
+ * <br>
+ * Without a class tree the common rewrite, {@code LDC "..."} into encrypted {@code LDC}, key push and
+ * {@code INVOKESTATIC}, is emitted as the reader visits each instruction. Only methods that need the tree are
+ * buffered into a {@link MethodNode} and handed to {@link DashOStringEncryption#processMethod}: those with a
+ * string inside a loop (for {@link LoopInvariantStrings}). A cheap scan over the class finds them before anything
+ * is written. String concatenations only get new bootstrap arguments, which the fast path rewrites in place.
+ *
+ * <p>The fast path is used when {@link DashOStringEncryption#isStreamable()}, otherwise, and whenever a rewritten
+ * method no longer fits 64K, the whole class goes through {@link DashOStringEncryption#apply(ClassNode)}.
+ * Inserted code is straight-line, so existing frames stay valid and only injected methods get theirs computed,
+ * in a scratch class that needs nothing but JDK types.
+ *
+ * @author a114mc
+ */
+public final class DashOVisitorEngine implements Opcodes {
+
+    private DashOVisitorEngine() {
+    }
+
+    /**
+     * Encrypts the strings of one class file.
+     * Safe to call concurrently for different classes, like {@link DashOStringEncryption#apply(ClassNode)}.
+     *
+     * @return the transformed class file
+     */
+    public static byte[] transform(DashOStringEncryption engine, byte[] classFile) {
+        if (!engine.isStreamable()) {
+            return applyTree(engine, classFile);
+        }
+        ClassReader reader = new ClassReader(classFile);
+
+        Set<String> treeMethods = scan(reader);
+        // No reader passed on: the plain strings must not survive in a copied constant pool
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        reader.accept(new StringClassVisitor(engine, writer, treeMethods), ClassReader.EXPAND_FRAMES);
+        try {
+            return writer.toByteArray();
+        } catch (MethodTooLargeException e) {
+            return applyTree(engine, classFile);
+        }
+    }
+
+    private static byte[] applyTree(DashOStringEncryption engine, byte[] classFile) {
+        // Offsets kept for hotness profiles and call site counters
+        ClassNode classNode = BytecodeOffsets.read(classFile, ClassReader.EXPAND_FRAMES);
+        Set<MethodNode> original = Collections.newSetFromMap(new IdentityHashMap<>());
+        original.addAll(classNode.methods);
+        engine.apply(classNode);
+
+        List<MethodNode> methods = classNode.methods;
+        for (int i = 0; i < methods.size(); i++) {
+            if (!original.contains(methods.get(i))) {
+                methods.set(i, withFrames(methods.get(i), classNode.version));
+            }
+        }
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return {@code name + desc} of the methods that need the tree path
+     */
+    private static Set<String> scan(ClassReader reader) {
+        Set<String> treeMethods = new HashSet<>();
+        reader.accept(new ClassVisitor(ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                return new LoopScanner(() -> treeMethods.add(name + descriptor));
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return treeMethods;
+    }
+
+    /**
+     * Flags a method with a backward branch over a string constant.
+     */
+    private static final class LoopScanner extends MethodVisitor {
+        private final Runnable flag;
+        private final Map<Label, Integer> labels = new HashMap<>();
+        private int position;
+        private int lastString = -1;
+        private boolean flagged;
+
+        private LoopScanner(Runnable flag) {
+            super(ASM9);
+            this.flag = flag;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            labels.put(label, position++);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (value instanceof String && ((String) value).length() >= 2) {
+                lastString = position;
+            }
+            position++;
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            branch(label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... targets) {
+            branch(dflt);
+            for (Label target : targets) {
+                branch(target);
+            }
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] targets) {
+            branch(dflt);
+            for (Label target : targets) {
+                branch(target);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsm, Object... bsmArgs) {
+            position++;
+        }
+
+        private void branch(Label target) {
+            Integer start = labels.get(target);
+            if (start != null && lastString >= start && !flagged) {
+                flagged = true;
+                flag.run();
+            }
+            position++;
+        }
+    }
+
+    private static final class StringClassVisitor extends ClassVisitor {
+        private final DashOStringEncryption engine;
+        private final Set<String> treeMethods;
+        private DashOStringEncryption.ClassState state;
+        /**
+         * Header of the class being visited, {@link DashOStringEncryption#finish} injects into it.
+         */
+        private ClassNode shell;
+
+        private StringClassVisitor(DashOStringEncryption engine, ClassVisitor writer, Set<String> treeMethods) {
+            super(ASM9, writer);
+            this.engine = engine;
+            this.treeMethods = treeMethods;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            shell = new ClassNode();
+            shell.visit(version, access, name, signature, superName, interfaces);
+            state = engine.begin(shell);
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (engine.skips(state, new MethodNode(access, name, descriptor, signature, exceptions))) {
+                return next;
+            }
+            engine.enterMethod(state, name, descriptor);
+            if (treeMethods.contains(name + descriptor)) {
+                return new MethodNode(ASM9, access, name, descriptor, signature, exceptions) {
+                    @Override
+                    public void visitEnd() {
+                        engine.processMethod(state, this);
+                        accept(next);
+                    }
+                };
+            }
+            return new MethodVisitor(ASM9, next) {
+                @Override
+                public void visitLdcInsn(Object value) {
+                    if (value instanceof String && ((String) value).length() >= 2) {
+                        engine.visitDecrypt(state, mv, (String) value);
+                    } else {
+                        super.visitLdcInsn(value);
+                    }
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsm, Object... bsmArgs) {
+                    Object[] encrypted = DashOStringEncryption.isStringConcatFactory(name, bsm)
+                            ? engine.encryptConcat(state, bsmArgs)
+                            : null;
+                    super.visitInvokeDynamicInsn(name, descriptor, bsm, encrypted == null ? bsmArgs : encrypted);
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            engine.finish(state);
+            for (FieldNode field : shell.fields) {
+                field.accept(cv);
+            }
+            for (MethodNode method : shell.methods) {
+                withFrames(method, shell.version).accept(cv);
+            }
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Computes the frames of an injected method alone. Its locals are JDK types, so unlike frames for the whole
+     * class this needs no class hierarchy.
+     */
+    private static MethodNode withFrames(MethodNode method, int version) {
+        ClassWriter scratch = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                try {
+                    return super.getCommonSuperClass(type1, type2);
+                } catch (RuntimeException e) {
+                    return "java/lang/Object";
+                }
+            }
+        };
+        scratch.visit(Math.max(version & 0xFFFF, V1_6), ACC_SUPER, "DashOFrames", null, "java/lang/Object", null);
+        method.accept(scratch);
+        scratch.visitEnd();
+
+        ClassNode framed = new ClassNode();
+        // Class files older than Java 6 carry no StackMapTable
+        new ClassReader(scratch.toByteArray()).accept(framed, (version & 0xFFFF) < V1_6 ? ClassReader.SKIP_FRAMES : 0);
+        return framed.methods.get(0);
+    }
+}
@@ -0,0 +1,192 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Execution counts per bytecode offset, used to keep string constants on hot paths out of the per-call decryptor.
+ * <br>
+ * Counts come from a text file of {@code owner#method(descriptor):bci -> count} lines (owner in internal or dotted
+ * form, lines starting with {@code #} are comments), or from the {@code jdk.ExecutionSample} events of a JFR
+ * recording, where every frame of a sample counts once. Overloads are told apart by their descriptor.
+ *
+ * <p>Offsets in a profile belong to the original class file, and exact offsets of single instructions are lost
+ * once ASM builds the tree. Only labels of a tree read through {@link BytecodeOffsets#read} still know theirs. So a
+ * string constant is scored by its statement region: the sum of every count between the closest such label before
+ * it and the next one after it. Samples land anywhere in a hot statement anyway, so this is the granularity that
+ * matters. In a tree read any other way the whole method is one region.
+ *
+ * @author a114mc
+ */
+public final class HotnessProfile {
+
+    /**
+     * {@code owner#name(descriptor)} to sorted offsets and their counts.
+     */
+    private final Map<String, long[][]> methods;
+
+    private HotnessProfile(Map<String, TreeMap<Integer, Long>> counts) {
+        this.methods = new HashMap<>();
+        counts.forEach((method, byOffset) -> {
+            long[][] table = new long[2][byOffset.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Long> entry : byOffset.entrySet()) {
+                table[0][i] = entry.getKey();
+                table[1][i] = entry.getValue();
+                i++;
+            }
+            methods.put(method, table);
+        });
+    }
+
+    /**
+     * Reads a {@code owner#method(descriptor):bci -> count} file, counts for the same offset add up. Sites a
+     * {@link DashOCallSiteCounters} dump could only number, {@code owner#method(descriptor)[n] -> count}, name no
+     * offset and are skipped.
+     *
+     * @throws IllegalArgumentException on a malformed line
+     */
+    public static HotnessProfile fromFile(Path path) throws IOException {
+        Map<String, TreeMap<Integer, Long>> counts = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                int arrow = line.indexOf("->");
+                if (arrow != -1 && line.substring(0, arrow).trim().endsWith("]")) {
+                    continue;
+                }
+                int colon = arrow == -1 ? -1 : line.lastIndexOf(':', arrow);
+                int hash = colon == -1 ? -1 : line.lastIndexOf('#', colon);
+                if (hash <= 0 || line.indexOf('(', hash) == -1 || line.indexOf('(', hash) > colon) {
+                    throw new IllegalArgumentException(
+                            path + ":" + number + ": expected owner#method(descriptor):bci -> count");
+                }
+                try {
+                    String owner = line.substring(0, hash).trim().replace('.', '/');
+                    String method = line.substring(hash + 1, colon).trim();
+                    int bci = Integer.parseInt(line.substring(colon + 1, arrow).trim());
+                    long count = Long.parseLong(line.substring(arrow + 2).trim());
+                    add(counts, owner, method, bci, count);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(path + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return new HotnessProfile(counts);
+    }
+
+    /**
+     * Counts the Java frames of every {@code jdk.ExecutionSample} in a JFR recording.
+     */
+    public static HotnessProfile fromJfr(Path path) throws IOException {
+        Map<String, TreeMap<Integer, Long>> counts = new HashMap<>();
+        try (RecordingFile recording = new RecordingFile(path)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                if (!event.getEventType().getName().equals("jdk.ExecutionSample") || event.getStackTrace() == null) {
+                    continue;
+                }
+                for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                    if (frame.isJavaFrame() && frame.getBytecodeIndex() >= 0) {
+                        add(counts, frame.getMethod().getType().getName().replace('.', '/'),
+                                frame.getMethod().getName() + frame.getMethod().getDescriptor(),
+                                frame.getBytecodeIndex(), 1);
+                    }
+                }
+            }
+        }
+        return new HotnessProfile(counts);
+    }
+
+    private static void add(Map<String, TreeMap<Integer, Long>> counts, String owner, String method, int bci, long count) {
+        counts.computeIfAbsent(owner + '#' + method, key -> new TreeMap<>()).merge(bci, count, Long::sum);
+    }
+
+    /**
+     * @return whether the profile counted anything in {@code method}
+     */
+    public boolean covers(String owner, MethodNode method) {
+        return methods.containsKey(key(owner, method));
+    }
+
+    private static String key(String owner, MethodNode method) {
+        return owner + '#' + method.name + method.desc;
+    }
+
+    /**
+     * Finds the string constants ({@code LDC} and string concatenation {@code invokedynamic}) of {@code method}
+     * whose statement region was executed at least {@code threshold} times.
+     *
+     * @param owner internal name of the class declaring {@code method}
+     * @return hot instructions, compared by identity
+     */
+    public Set<AbstractInsnNode> hotInstructions(String owner, MethodNode method, long threshold) {
+        long[][] table = methods.get(key(owner, method));
+        if (table == null) {
+            return Collections.emptySet();
+        }
+
+        Set<AbstractInsnNode> hot = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<AbstractInsnNode> pending = new ArrayList<>();
+        int regionStart = 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LabelNode) {
+                int offset = BytecodeOffsets.offset((LabelNode) insn);
+                if (offset >= 0) {
+                    flush(table, pending, regionStart, offset, threshold, hot);
+                    regionStart = offset;
+                }
+            } else if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String
+                    || insn instanceof InvokeDynamicInsnNode) {
+                pending.add(insn);
+            }
+        }
+        flush(table, pending, regionStart, Integer.MAX_VALUE, threshold, hot);
+        return hot;
+    }
+
+    private static void flush(long[][] table, List<AbstractInsnNode> pending, int start, int end, long threshold,
+                              Set<AbstractInsnNode> hot) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int from = Arrays.binarySearch(table[0], start);
+        from = from < 0 ? -from - 1 : from;
+        long sum = 0;
+        for (int i = from; i < table[0].length && table[0][i] < end; i++) {
+            sum += table[1][i];
+        }
+        if (sum >= threshold) {
+            hot.addAll(pending);
+        }
+        pending.clear();
+    }
+}
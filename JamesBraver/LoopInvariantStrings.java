@@ -0,0 +1,478 @@
+package me.iris.ambien.obfuscator.transformers.impl.data.string;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves string constants out of loops before they get encrypted, so the decryptor runs once per loop entry
+ * instead of once per iteration:
+ * <pre>
+ *     for (...) { use("key"); }   becomes   String s = "key"; for (...) { use(s); }
+ * </pre>
+ * The {@code LDC} itself moves into a new preheader in front of the outermost natural loop running it on every
+ * iteration, the in-loop uses become {@code ALOAD}s of a fresh local, and the encryption pass then rewrites the
+ * preheader {@code LDC} like any other. Constants only some iterations reach keep their per-use decryption.
+ *
+ * <p>Loops come from the dominator tree of the control flow graph {@link Analyzer} reports, exception edges
+ * included. Loops headed by an exception handler are left alone. Methods with compressed stack map frames are
+ * skipped; expanded frames inside a hoisted loop get the new local, so the method stays verifiable whether or
+ * not frames are recomputed on write.
+ *
+ * @author a114mc
+ */
+final class LoopInvariantStrings implements Opcodes {
+
+    /**
+     * Edits made by one {@link #hoist(String, MethodNode, int)} call, for backing out of them.
+     */
+    static final class Hoist {
+        private final MethodNode method;
+        private final int maxLocals;
+        private final int maxStack;
+        private final List<Runnable> undo = new ArrayList<>();
+        private int constants;
+
+        private Hoist(MethodNode method) {
+            this.method = method;
+            this.maxLocals = method.maxLocals;
+            this.maxStack = method.maxStack;
+        }
+
+        /**
+         * Restores the method exactly as it was before hoisting.
+         */
+        void undo() {
+            for (int i = undo.size() - 1; i >= 0; i--) {
+                undo.get(i).run();
+            }
+            undo.clear();
+            method.maxLocals = maxLocals;
+            method.maxStack = maxStack;
+        }
+    }
+
+    private LoopInvariantStrings() {
+    }
+
+    /**
+     * @param owner     internal name of the class declaring {@code method}
+     * @param minLength shortest string worth hoisting, shorter ones are never encrypted anyway
+     * @return the applied edits, or {@code null} if nothing was hoisted
+     */
+    static Hoist hoist(String owner, MethodNode method, int minLength) {
+        InsnList insns = method.instructions;
+        AbstractInsnNode[] array = insns.toArray();
+        boolean hasFrames = false;
+        boolean hasCandidates = false;
+        for (AbstractInsnNode insn : array) {
+            if (insn instanceof FrameNode) {
+                if (((FrameNode) insn).type != F_NEW) {
+                    return null;
+                }
+                hasFrames = true;
+            } else if (isCandidate(insn, minLength)) {
+                hasCandidates = true;
+            }
+        }
+        if (!hasCandidates) {
+            return null;
+        }
+
+        List<List<Integer>> successors = new ArrayList<>(array.length);
+        List<List<Integer>> predecessors = new ArrayList<>(array.length);
+        for (int i = 0; i < array.length; i++) {
+            successors.add(new ArrayList<>(2));
+            predecessors.add(new ArrayList<>(2));
+        }
+        Analyzer<BasicValue> analyzer = new Analyzer<BasicValue>(new BasicInterpreter()) {
+            @Override
+            protected void newControlFlowEdge(int insn, int successor) {
+                successors.get(insn).add(successor);
+                predecessors.get(successor).add(insn);
+            }
+
+            @Override
+            protected boolean newControlFlowExceptionEdge(int insn, int successor) {
+                newControlFlowEdge(insn, successor);
+                return true;
+            }
+        };
+        Frame<BasicValue>[] frames;
+        try {
+            frames = analyzer.analyze(owner, method);
+        } catch (AnalyzerException e) {
+            return null;
+        }
+
+        int[] idom = dominators(successors, predecessors);
+        Map<Integer, BitSet> loops = new LinkedHashMap<>();
+        Map<Integer, List<Integer>> latches = new HashMap<>();
+        for (int tail = 0; tail < array.length; tail++) {
+            for (int header : successors.get(tail)) {
+                if (idom[tail] != -1 && dominates(idom, header, tail)) {
+                    addLoop(loops.computeIfAbsent(header, key -> new BitSet(array.length)), predecessors, header, tail);
+                    latches.computeIfAbsent(header, key -> new ArrayList<>()).add(tail);
+                }
+            }
+        }
+        if (loops.isEmpty()) {
+            return null;
+        }
+
+        // Each constant goes to the outermost loop running it on every iteration
+        Map<Integer, List<LdcInsnNode>> byHeader = new LinkedHashMap<>();
+        for (int i = 0; i < array.length; i++) {
+            if (!isCandidate(array[i], minLength)) {
+                continue;
+            }
+            int best = -1;
+            for (Map.Entry<Integer, BitSet> loop : loops.entrySet()) {
+                if (loop.getValue().get(i) && onEveryIteration(idom, i, latches.get(loop.getKey()))
+                        && (best == -1 || loop.getValue().cardinality() > loops.get(best).cardinality())) {
+                    best = loop.getKey();
+                }
+            }
+            if (best != -1) {
+                byHeader.computeIfAbsent(best, key -> new ArrayList<>()).add((LdcInsnNode) array[i]);
+            }
+        }
+
+        // Original indices, the list is renumbered once the first loop is rewritten
+        Set<LabelNode> handlers = new HashSet<>();
+        int[][] ranges = new int[method.tryCatchBlocks.size()][];
+        for (int i = 0; i < ranges.length; i++) {
+            TryCatchBlockNode tryCatch = method.tryCatchBlocks.get(i);
+            handlers.add(tryCatch.handler);
+            ranges[i] = new int[]{insns.indexOf(tryCatch.start), insns.indexOf(tryCatch.end), insns.indexOf(tryCatch.handler)};
+        }
+
+        Hoist hoist = new Hoist(method);
+        BitSet hoisted = new BitSet(array.length);
+        for (Map.Entry<Integer, List<LdcInsnNode>> entry : byHeader.entrySet()) {
+            int header = entry.getKey();
+            BitSet body = loops.get(header);
+            if (!(array[header] instanceof LabelNode) || handlers.contains(array[header]) || body.intersects(hoisted)
+                    || guardsPreheader(ranges, header, body)) {
+                continue;
+            }
+            FrameNode headerFrame = hasFrames ? frameAt(array[header]) : null;
+            if (hasFrames && headerFrame == null) {
+                continue;
+            }
+            hoistLoop(hoist, method, array, successors, body, header, headerFrame, frames[header], entry.getValue());
+            hoisted.or(body);
+        }
+        return hoist.constants == 0 ? null : hoist;
+    }
+
+    /**
+     * @return whether {@code insn} dominates every back edge of a loop, so each iteration runs it anyway. A constant
+     * on a conditional path, such as {@code if (bad) throw new X("...")}, stays where it is: from the preheader it
+     * would be decrypted on every loop entry, also by those that never take that path.
+     */
+    private static boolean onEveryIteration(int[] idom, int insn, List<Integer> latches) {
+        for (int latch : latches) {
+            if (!dominates(idom, insn, latch)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A handler inside the loop must not cover the preheader, it would see the new locals before they are stored.
+     */
+    private static boolean guardsPreheader(int[][] ranges, int header, BitSet body) {
+        for (int[] range : ranges) {
+            if (body.get(range[2]) && range[0] < header && header < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCandidate(AbstractInsnNode insn, int minLength) {
+        return insn instanceof LdcInsnNode
+                && ((LdcInsnNode) insn).cst instanceof String
+                && ((String) ((LdcInsnNode) insn).cst).length() >= minLength;
+    }
+
+    /**
+     * Rewrites one loop: in-loop uses load the new locals, the preheader in front of {@code header} stores them
+     * and every entry from outside the loop is pointed at the preheader.
+     */
+    private static void hoistLoop(Hoist hoist, MethodNode method, AbstractInsnNode[] array,
+                                  List<List<Integer>> successors, BitSet body, int headerIndex,
+                                  FrameNode headerFrame, Frame<BasicValue> headerState, List<LdcInsnNode> constants) {
+        InsnList insns = method.instructions;
+        LabelNode header = (LabelNode) array[headerIndex];
+        LabelNode preheader = new LabelNode();
+        InsnList init = new InsnList();
+
+        // Back edges falling through into the header must not run the preheader
+        int previous = headerIndex - 1;
+        if (previous >= 0 && body.get(previous) && successors.get(previous).contains(headerIndex)) {
+            init.add(new JumpInsnNode(GOTO, header));
+        }
+        init.add(preheader);
+        if (headerFrame != null) {
+            init.add(new FrameNode(F_NEW, headerFrame.local.size(), headerFrame.local.toArray(),
+                    headerFrame.stack.size(), headerFrame.stack.toArray()));
+        }
+
+        Map<Object, Integer> locals = new LinkedHashMap<>();
+        for (LdcInsnNode ldc : constants) {
+            Integer local = locals.get(ldc.cst);
+            VarInsnNode load;
+            if (local == null) {
+                local = method.maxLocals++;
+                locals.put(ldc.cst, local);
+                load = new VarInsnNode(ALOAD, local);
+                insns.insertBefore(ldc, load);
+                insns.remove(ldc);
+                init.add(ldc);
+                init.add(new VarInsnNode(ASTORE, local));
+                hoist.undo.add(() -> {
+                    insns.remove(ldc);
+                    insns.insertBefore(load, ldc);
+                    insns.remove(load);
+                });
+                hoist.constants++;
+            } else {
+                load = new VarInsnNode(ALOAD, local);
+                insns.set(ldc, load);
+                hoist.undo.add(() -> insns.set(load, ldc));
+            }
+        }
+        method.maxStack = Math.max(method.maxStack, headerState.getStackSize() + 1);
+
+        for (int i = 0; i < array.length; i++) {
+            if (body.get(i)) {
+                if (array[i] instanceof FrameNode) {
+                    addLocals((FrameNode) array[i], hoist, locals.size(), method.maxLocals - locals.size());
+                }
+            } else {
+                redirect(array[i], header, preheader, hoist);
+            }
+        }
+
+        AbstractInsnNode first = init.getFirst();
+        AbstractInsnNode last = init.getLast();
+        insns.insertBefore(header, init);
+        hoist.undo.add(() -> {
+            AbstractInsnNode insn = first;
+            while (insn != last) {
+                AbstractInsnNode next = insn.getNext();
+                // Hoisted LDCs are put back by their own undo step
+                if (!(insn instanceof LdcInsnNode)) {
+                    insns.remove(insn);
+                }
+                insn = next;
+            }
+            insns.remove(last);
+        });
+    }
+
+    /**
+     * Appends {@code count} {@code String} locals starting at slot {@code firstSlot} to an expanded frame.
+     */
+    private static void addLocals(FrameNode frame, Hoist hoist, int count, int firstSlot) {
+        List<Object> original = new ArrayList<>(frame.local);
+        int slots = 0;
+        for (Object type : frame.local) {
+            slots += type == LONG || type == DOUBLE ? 2 : 1;
+        }
+        for (; slots < firstSlot; slots++) {
+            frame.local.add(TOP);
+        }
+        for (int i = 0; i < count; i++) {
+            frame.local.add("java/lang/String");
+        }
+        hoist.undo.add(() -> {
+            frame.local.clear();
+            frame.local.addAll(original);
+        });
+    }
+
+    private static void redirect(AbstractInsnNode insn, LabelNode from, LabelNode to, Hoist hoist) {
+        if (insn instanceof JumpInsnNode && ((JumpInsnNode) insn).label == from) {
+            ((JumpInsnNode) insn).label = to;
+            hoist.undo.add(() -> ((JumpInsnNode) insn).label = from);
+        } else if (insn instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+            if (tableSwitch.dflt == from) {
+                tableSwitch.dflt = to;
+                hoist.undo.add(() -> tableSwitch.dflt = from);
+            }
+            redirect(tableSwitch.labels, from, to, hoist);
+        } else if (insn instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+            if (lookupSwitch.dflt == from) {
+                lookupSwitch.dflt = to;
+                hoist.undo.add(() -> lookupSwitch.dflt = from);
+            }
+            redirect(lookupSwitch.labels, from, to, hoist);
+        }
+    }
+
+    private static void redirect(List<LabelNode> labels, LabelNode from, LabelNode to, Hoist hoist) {
+        for (int i = 0; i < labels.size(); i++) {
+            if (labels.get(i) == from) {
+                int index = i;
+                labels.set(i, to);
+                hoist.undo.add(() -> labels.set(index, from));
+            }
+        }
+    }
+
+    /**
+     * @return the frame attached to {@code label}, looking past other labels and line numbers
+     */
+    private static FrameNode frameAt(AbstractInsnNode label) {
+        for (AbstractInsnNode insn = label.getNext(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof FrameNode) {
+                return (FrameNode) insn;
+            }
+            if (!(insn instanceof LabelNode) && !(insn instanceof LineNumberNode)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Immediate dominators by the Cooper, Harvey and Kennedy iteration over reverse postorder.
+     *
+     * @return immediate dominator per instruction, the entry is its own, {@code -1} for unreachable code
+     */
+    private static int[] dominators(List<List<Integer>> successors, List<List<Integer>> predecessors) {
+        int size = successors.size();
+        int[] order = new int[size];
+        int[] rank = new int[size];
+        Arrays.fill(rank, -1);
+        int count = postorder(successors, order, rank);
+
+        int[] idom = new int[size];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = count - 2; i >= 0; i--) {
+                int node = order[i];
+                int dominator = -1;
+                for (int predecessor : predecessors.get(node)) {
+                    if (idom[predecessor] == -1) {
+                        continue;
+                    }
+                    dominator = dominator == -1 ? predecessor : intersect(idom, rank, predecessor, dominator);
+                }
+                if (idom[node] != dominator) {
+                    idom[node] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    /**
+     * Fills {@code order} with the reachable instructions in postorder and {@code rank} with their position.
+     */
+    private static int postorder(List<List<Integer>> successors, int[] order, int[] rank) {
+        int count = 0;
+        boolean[] visited = new boolean[successors.size()];
+        int[] stack = new int[successors.size()];
+        int[] next = new int[successors.size()];
+        int depth = 0;
+        stack[depth++] = 0;
+        visited[0] = true;
+        while (depth > 0) {
+            int node = stack[depth - 1];
+            List<Integer> edges = successors.get(node);
+            if (next[node] < edges.size()) {
+                int successor = edges.get(next[node]++);
+                if (!visited[successor]) {
+                    visited[successor] = true;
+                    stack[depth++] = successor;
+                }
+            } else {
+                depth--;
+                rank[node] = count;
+                order[count++] = node;
+            }
+        }
+        return count;
+    }
+
+    private static int intersect(int[] idom, int[] rank, int a, int b) {
+        while (a != b) {
+            while (rank[a] < rank[b]) {
+                a = idom[a];
+            }
+            while (rank[b] < rank[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private static boolean dominates(int[] idom, int dominator, int node) {
+        while (true) {
+            if (node == dominator) {
+                return true;
+            }
+            if (idom[node] == node || idom[node] == -1) {
+                return false;
+            }
+            node = idom[node];
+        }
+    }
+
+    /**
+     * Adds the natural loop of the back edge {@code tail -> header} to {@code body}.
+     */
+    private static void addLoop(BitSet body, List<List<Integer>> predecessors, int header, int tail) {
+        body.set(header);
+        List<Integer> work = new ArrayList<>();
+        if (!body.get(tail)) {
+            body.set(tail);
+            work.add(tail);
+        }
+        while (!work.isEmpty()) {
+            int node = work.remove(work.size() - 1);
+            for (int predecessor : predecessors.get(node)) {
+                if (!body.get(predecessor)) {
+                    body.set(predecessor);
+                    work.add(predecessor);
+                }
+            }
+        }
+    }
+}